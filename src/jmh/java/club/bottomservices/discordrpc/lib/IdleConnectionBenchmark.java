@@ -0,0 +1,174 @@
+package club.bottomservices.discordrpc.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many idle connections to a {@link FakeDiscordServer}, their read loops on platform threads or on virtual threads.
+ * The virtual variant needs the benchmarks to run on Java 21 or newer, it fails its setup otherwise.
+ * The fake server keeps a platform thread per connection in both variants, so only the difference between them is the client's
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdleConnectionBenchmark {
+    public enum Threads {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public Threads threads;
+
+    @Param({"100", "1000"})
+    public int connections;
+
+    private FakeDiscordServer server;
+    private final List<DiscordRPCClient> idle = new ArrayList<>();
+    private DiscordRPCClient active;
+    private final RichPresence[] presences = new RichPresence[2];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = FakeDiscordServer.start();
+        var builder = new RichPresence.Builder();
+        for (int i = 0; i < presences.length; i++) {
+            presences[i] = builder.setText("Idle benchmark", "Round " + i).build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private DiscordRPCClient client() {
+        var client = new DiscordRPCClient("0");
+        client.setIpcPath(server.path());
+        if (threads == Threads.VIRTUAL) {
+            client.useVirtualThreads();
+        }
+        return client;
+    }
+
+    private void connectAll(List<DiscordRPCClient> clients) {
+        var ready = new CompletableFuture<?>[clients.size()];
+        for (int i = 0; i < ready.length; i++) {
+            var client = clients.get(i);
+            client.connect();
+            ready[i] = client.whenReady();
+        }
+        CompletableFuture.allOf(ready).join();
+    }
+
+    private static void closeAll(List<DiscordRPCClient> clients) {
+        for (var client : clients) {
+            client.close();
+        }
+        clients.clear();
+    }
+
+    /**
+     * Opens the idle connections used by {@link IdleConnectionBenchmark#roundTripWhileIdle()} and reports what holding them costs
+     */
+    @State(Scope.Benchmark)
+    public static class Idle {
+        @Setup(Level.Trial)
+        public void open(IdleConnectionBenchmark benchmark) throws Exception {
+            var threads = ManagementFactory.getThreadMXBean();
+            int threadsBefore = threads.getThreadCount();
+            long residentBefore = residentKilobytes();
+            for (int i = 0; i < benchmark.connections; i++) {
+                benchmark.idle.add(benchmark.client());
+            }
+            benchmark.connectAll(benchmark.idle);
+            benchmark.active = benchmark.client();
+            benchmark.connectAll(List.of(benchmark.active));
+            System.gc();
+            System.out.printf("%n%d idle connections on %s threads: %d more platform threads, %d KB more resident memory%n",
+                    benchmark.connections, benchmark.threads, threads.getThreadCount() - threadsBefore, residentKilobytes() - residentBefore);
+        }
+
+        @TearDown(Level.Trial)
+        public void close(IdleConnectionBenchmark benchmark) {
+            benchmark.active.close();
+            closeAll(benchmark.idle);
+        }
+
+        // Resident set of the process, or 0 where /proc is unavailable
+        private static long residentKilobytes() throws IOException {
+            var status = Path.of("/proc/self/status");
+            if (!Files.exists(status)) {
+                return 0;
+            }
+            for (var line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Holds the connections opened by {@link IdleConnectionBenchmark#connectAll()} so they are closed outside of the measurement
+     */
+    @State(Scope.Benchmark)
+    public static class Fresh {
+        private final List<DiscordRPCClient> clients = new ArrayList<>();
+
+        @Setup(Level.Invocation)
+        public void create(IdleConnectionBenchmark benchmark) {
+            for (int i = 0; i < benchmark.connections; i++) {
+                clients.add(benchmark.client());
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            closeAll(clients);
+        }
+    }
+
+    /**
+     * Opens every connection and waits until all of them are ready, which includes starting their read loops
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public void connectAll(Fresh fresh) {
+        connectAll(fresh.clients);
+    }
+
+    /**
+     * A presence round trip on one more connection while the others sit idle
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public CommandResponse roundTripWhileIdle(Idle idle) {
+        return active.sendPresenceAsync(presences[next ^= 1]).join();
+    }
+}
@@ -0,0 +1,86 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameDecoder;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Framing of outgoing packets and decoding of incoming ones
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+    private DiscordPacket packet;
+    private byte[] ready;
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    @Setup
+    public void setup() {
+        var presence = new RichPresence.Builder()
+                .setText("Playing a benchmark", "In a match")
+                .setTimestamps(1700000000L, null)
+                .setAssets("large", "Large image", "small", "Small image")
+                .build();
+        var args = new JsonObject();
+        args.addProperty("pid", 1234);
+        args.add("activity", DiscordRPCClient.GSON.toJsonTree(presence));
+        var message = new JsonObject();
+        message.addProperty("cmd", "SET_ACTIVITY");
+        message.add("args", args);
+        message.addProperty("nonce", "42");
+        packet = new DiscordPacket(DiscordPacket.OpCode.MESSAGE, message);
+
+        byte[] payload = ("{\"cmd\":\"DISPATCH\",\"data\":{\"v\":1,\"config\":{\"cdn_host\":\"cdn.discordapp.com\",\"api_endpoint\":\"//discord.com/api\","
+                + "\"environment\":\"production\"},\"user\":{\"id\":\"123456789012345678\",\"username\":\"benchmark\",\"discriminator\":\"0\","
+                + "\"global_name\":\"Benchmark\",\"avatar\":null,\"bot\":false,\"flags\":0,\"premium_type\":0}},\"evt\":\"READY\",\"nonce\":null}")
+                .getBytes(StandardCharsets.UTF_8);
+        ready = DiscordPacket.toBytes(DiscordPacket.OpCode.MESSAGE, payload);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return packet.toBytes();
+    }
+
+    /**
+     * What {@link club.bottomservices.discordrpc.lib.pipe.Pipe#read()} does, parsing the whole payload into a Gson tree
+     */
+    @Benchmark
+    public DiscordPacket decodeTree() throws IOException {
+        decoder.receiveBuffer().put(ready);
+        return decoder.decode();
+    }
+
+    /**
+     * What the client's read loop does, only reading the event name and the user out of a READY
+     */
+    @Benchmark
+    public void decodeView(Blackhole blackhole) throws IOException {
+        decoder.receiveBuffer().put(ready);
+        decoder.decode(view -> {
+            blackhole.consume(view.evt());
+            var data = view.data();
+            if (data != null) {
+                blackhole.consume(EventDecoder.readUser(data, "user"));
+            }
+        });
+    }
+}
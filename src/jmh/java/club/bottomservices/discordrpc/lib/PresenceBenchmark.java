@@ -0,0 +1,74 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and serializing presences, without any IO
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PresenceBenchmark {
+    private RichPresence.Builder builder;
+    private final RichPresence[] presences = new RichPresence[2];
+    private final FrameBuffer frame = new FrameBuffer(2048);
+    private final PresenceCache cache = new PresenceCache();
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        builder = new RichPresence.Builder()
+                .setTimestamps(1700000000L, null)
+                .setAssets("large", "Large image", "small", "Small image")
+                .setPartyInfo("party", 1, 4)
+                .addButton("Website", "https://example.com");
+        // Only the text changes between updates, like a typical status line
+        for (int i = 0; i < presences.length; i++) {
+            presences[i] = builder.setText("Playing a benchmark", "Round " + i).build();
+        }
+    }
+
+    @Benchmark
+    public RichPresence build() {
+        return builder.build();
+    }
+
+    /**
+     * The serialization used before {@link PresenceEncoder}, kept as a baseline
+     */
+    @Benchmark
+    public String gsonTree() {
+        return DiscordRPCClient.GSON.toJsonTree(presences[0]).toString();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        PresenceEncoder.encode(presences[0], frame.clear());
+        return frame.finish(DiscordPacket.OpCode.MESSAGE);
+    }
+
+    /**
+     * What sending a changed presence costs, unchanged parts are copied from {@link PresenceCache}
+     */
+    @Benchmark
+    public ByteBuffer encodeCached() {
+        cache.encode(presences[next ^= 1], frame.clear());
+        return frame.finish(DiscordPacket.OpCode.MESSAGE);
+    }
+}
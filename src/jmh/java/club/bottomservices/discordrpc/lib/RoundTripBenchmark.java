@@ -0,0 +1,73 @@
+package club.bottomservices.discordrpc.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presences sent over a real unix socket to a {@link FakeDiscordServer}
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+    private FakeDiscordServer server;
+    private DiscordRPCClient client;
+    private final RichPresence[] presences = new RichPresence[2];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = FakeDiscordServer.start();
+        client = new DiscordRPCClient("0");
+        client.setIpcPath(server.path());
+        client.connect();
+        var builder = new RichPresence.Builder().setAssets("large", "Large image", null, null);
+        for (int i = 0; i < presences.length; i++) {
+            presences[i] = builder.setText("Playing a benchmark", "Round " + i).build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    // Alternates so no presence is suppressed as a repeat
+    private RichPresence nextPresence() {
+        return presences[next ^= 1];
+    }
+
+    /**
+     * Writes a presence and waits for its acknowledgement
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    public CommandResponse roundTrip() {
+        return client.sendPresenceAsync(nextPresence()).join();
+    }
+
+    /**
+     * The full serialization and write of {@link DiscordRPCClient#sendPresence(RichPresence)}, without waiting for discord
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void sendPresence() {
+        client.sendPresence(nextPresence());
+    }
+}
@@ -0,0 +1,72 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.WriteLane;
+
+/**
+ * Receives measurements of what a {@link DiscordRPCClient} is doing, every method does nothing by default.
+ * Called inline on the client's reading, writing and listener threads, so implementations must be thread safe and cheap
+ * @see DiscordRPCClient#setMetrics(ClientMetrics)
+ * @see CounterMetrics
+ */
+public interface ClientMetrics {
+    /**
+     * Metrics that discard everything, used when none are set
+     */
+    ClientMetrics NONE = new ClientMetrics() {};
+
+    /**
+     * A pipe to discord was opened
+     * @param nanos Time spent finding and opening it
+     */
+    default void onConnect(long nanos) {}
+
+    /**
+     * Discord sent READY for a new connection
+     * @param nanos Time since the connection attempt started
+     */
+    default void onHandshake(long nanos) {}
+
+    /**
+     * A packet was written
+     * @param bytes Size of the packet, header included
+     * @param serializationNanos Time spent encoding it
+     * @param writeNanos Time spent writing it to the pipe
+     */
+    default void onFrameSent(int bytes, long serializationNanos, long writeNanos) {}
+
+    /**
+     * A packet was fully handed to the socket
+     * @param lane The lane it was queued in, replies to discord go ahead of presences
+     * @param latencyNanos Time from sending it until it was written, including time spent queued behind other packets
+     */
+    default void onFrameWritten(WriteLane lane, long latencyNanos) {}
+
+    /**
+     * A packet was received
+     * @param bytes Size of its payload
+     */
+    default void onFrameReceived(int bytes) {}
+
+    /**
+     * Discord replied to a command sent through one of the async methods
+     * @param latencyNanos Time between writing the command and receiving its reply
+     * @param rejected Whether the reply was an error
+     */
+    default void onCommandCompleted(long latencyNanos, boolean rejected) {}
+
+    /**
+     * Discord did not reply to a command in time
+     */
+    default void onCommandTimeout() {}
+
+    /**
+     * A listener callback returned
+     * @param nanos Time spent in the callback
+     */
+    default void onListener(long nanos) {}
+
+    /**
+     * An error was reported, either a failed read or write or an ERROR event from discord
+     */
+    default void onError() {}
+}
@@ -0,0 +1,90 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Commands collected by {@link DiscordRPCClient#batch(Consumer)}, they are encoded back to back into one buffer
+ * and written together once the batch ends. Only valid inside the callback it was passed to
+ */
+public final class CommandBatch {
+    private final DiscordRPCClient client;
+    private final FrameBuffer frame;
+    private final Duration timeout;
+    private final List<Long> nonces = new ArrayList<>();
+    private boolean done = false;
+
+    CommandBatch(@Nonnull DiscordRPCClient client, @Nonnull FrameBuffer frame, @Nonnull Duration timeout) {
+        this.client = client;
+        this.frame = frame;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Adds a presence update, see {@link DiscordRPCClient#sendPresenceAsync(RichPresence)}.
+     * If a {@link PresenceScheduler} is installed the presence goes through it instead and is written on its own
+     *
+     * @return A future completed with discord's reply
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> presence(@Nonnull RichPresence presence) {
+        checkOpen();
+        return client.batchPresence(this, presence, timeout);
+    }
+
+    /**
+     * Adds a response to an activity join request, see {@link DiscordRPCClient#respondAsync(String, boolean)}
+     *
+     * @return A future completed with discord's reply
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> respond(@Nonnull String userId, boolean accepted) {
+        checkOpen();
+        return client.batchMessage(this, DiscordRPCClient.respondMessage(userId, accepted), timeout);
+    }
+
+    private void checkOpen() {
+        if (done) {
+            throw new IllegalStateException("Batch was already written");
+        }
+    }
+
+    /**
+     * @return The buffer to encode the next command into, positioned at an empty packet
+     */
+    @Nonnull
+    FrameBuffer packet() {
+        // A suppressed presence leaves its packet empty, it is reused instead of starting another
+        if (frame.size() > 0) {
+            frame.next(DiscordPacket.OpCode.MESSAGE);
+        }
+        return frame;
+    }
+
+    void track(long nonce) {
+        nonces.add(nonce);
+    }
+
+    @Nonnull
+    List<Long> nonces() {
+        return nonces;
+    }
+
+    /**
+     * Ends the batch
+     * @return Every encoded packet, or null if there is nothing to write
+     */
+    @Nullable
+    ByteBuffer finish() {
+        done = true;
+        return nonces.isEmpty() ? null : frame.finish(DiscordPacket.OpCode.MESSAGE);
+    }
+}
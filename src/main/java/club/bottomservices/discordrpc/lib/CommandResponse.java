@@ -0,0 +1,15 @@
+package club.bottomservices.discordrpc.lib;
+
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+
+/**
+ * Discord's reply to a command sent through one of the async methods of {@link DiscordRPCClient}
+ * @param data The data of the reply, null if nothing was sent because the command would have been redundant
+ * @param latency Time between writing the command and receiving its reply
+ */
+public record CommandResponse(@Nullable JsonObject data, @Nonnull Duration latency) {
+}
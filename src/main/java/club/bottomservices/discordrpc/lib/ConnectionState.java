@@ -0,0 +1,28 @@
+package club.bottomservices.discordrpc.lib;
+
+/**
+ * Lifecycle of the connection of a {@link DiscordRPCClient}, which only ever moves forward through these states and back to {@link ConnectionState#DISCONNECTED}
+ * @see DiscordRPCClient#getState()
+ */
+public enum ConnectionState {
+    /**
+     * No connection is open, {@link DiscordRPCClient#connect()} may be called
+     */
+    DISCONNECTED,
+    /**
+     * A pipe to discord is being opened
+     */
+    CONNECTING,
+    /**
+     * The handshake was sent and discord has not sent READY yet, commands can already be written
+     */
+    HANDSHAKING,
+    /**
+     * Discord sent READY
+     */
+    READY,
+    /**
+     * The connection is being closed, exactly one thread does so
+     */
+    CLOSING
+}
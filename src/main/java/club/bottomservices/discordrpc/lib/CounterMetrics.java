@@ -0,0 +1,169 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.WriteLane;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ClientMetrics} keeping totals in striped counters and durations in {@link LatencyHistogram}s, cheap enough to leave on in production
+ */
+public final class CounterMetrics implements ClientMetrics {
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder commandsRejected = new LongAdder();
+    private final LongAdder commandTimeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LatencyHistogram handshakeTime = new LatencyHistogram();
+    private final LatencyHistogram serializationTime = new LatencyHistogram();
+    private final LatencyHistogram writeTime = new LatencyHistogram();
+    private final LatencyHistogram commandLaneLatency = new LatencyHistogram();
+    private final LatencyHistogram presenceLaneLatency = new LatencyHistogram();
+    private final LatencyHistogram commandLatency = new LatencyHistogram();
+    private final LatencyHistogram listenerTime = new LatencyHistogram();
+
+    @Override
+    public void onConnect(long nanos) {
+        connects.increment();
+        connectTime.record(nanos);
+    }
+
+    @Override
+    public void onHandshake(long nanos) {
+        handshakeTime.record(nanos);
+    }
+
+    @Override
+    public void onFrameSent(int bytes, long serializationNanos, long writeNanos) {
+        framesSent.increment();
+        bytesSent.add(bytes);
+        serializationTime.record(serializationNanos);
+        writeTime.record(writeNanos);
+    }
+
+    @Override
+    public void onFrameWritten(WriteLane lane, long latencyNanos) {
+        getLaneLatency(lane).record(latencyNanos);
+    }
+
+    @Override
+    public void onFrameReceived(int bytes) {
+        framesReceived.increment();
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void onCommandCompleted(long latencyNanos, boolean rejected) {
+        commandLatency.record(latencyNanos);
+        if (rejected) {
+            commandsRejected.increment();
+        }
+    }
+
+    @Override
+    public void onCommandTimeout() {
+        commandTimeouts.increment();
+    }
+
+    @Override
+    public void onListener(long nanos) {
+        listenerTime.record(nanos);
+    }
+
+    @Override
+    public void onError() {
+        errors.increment();
+    }
+
+    public long getConnectCount() {
+        return connects.sum();
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * @return How many commands discord replied to with an error
+     */
+    public long getCommandsRejected() {
+        return commandsRejected.sum();
+    }
+
+    public long getCommandTimeouts() {
+        return commandTimeouts.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return Time spent finding and opening a pipe
+     */
+    @Nonnull
+    public LatencyHistogram getConnectTime() {
+        return connectTime;
+    }
+
+    /**
+     * @return Time from starting to connect until discord sent READY
+     */
+    @Nonnull
+    public LatencyHistogram getHandshakeTime() {
+        return handshakeTime;
+    }
+
+    @Nonnull
+    public LatencyHistogram getSerializationTime() {
+        return serializationTime;
+    }
+
+    /**
+     * @return Time spent writing packets to the pipe, long writes point at a stalled discord
+     */
+    @Nonnull
+    public LatencyHistogram getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * @return Time from sending a packet of the lane until it was written, including time spent queued behind other packets
+     */
+    @Nonnull
+    public LatencyHistogram getLaneLatency(@Nonnull WriteLane lane) {
+        return lane == WriteLane.COMMAND ? commandLaneLatency : presenceLaneLatency;
+    }
+
+    /**
+     * @return Time between writing a command and receiving its reply
+     */
+    @Nonnull
+    public LatencyHistogram getCommandLatency() {
+        return commandLatency;
+    }
+
+    /**
+     * @return Time spent in listener callbacks, long callbacks point at slow listeners
+     */
+    @Nonnull
+    public LatencyHistogram getListenerTime() {
+        return listenerTime;
+    }
+}
@@ -13,7 +13,14 @@ public record DiscordPacket(DiscordPacket.OpCode opCode, JsonObject json) {
      * @return A byte array containing the contents of this packet
      */
     public byte[] toBytes() {
-        byte[] jsonBytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        return toBytes(opCode, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param jsonBytes An already serialized json payload
+     * @return A byte array containing a packet made of the given opcode and payload
+     */
+    public static byte[] toBytes(OpCode opCode, byte[] jsonBytes) {
         int jsonSize = jsonBytes.length;
         ByteBuffer buffer = ByteBuffer.allocate(jsonSize + 2 * Integer.BYTES);
         buffer.putInt(Integer.reverseBytes(opCode.ordinal()))
@@ -28,6 +35,11 @@ public record DiscordPacket(DiscordPacket.OpCode opCode, JsonObject json) {
     public enum OpCode {
         HANDSHAKE,
         MESSAGE,
-        CLOSE
+        CLOSE,
+        /**
+         * Answered with a {@link OpCode#PONG} carrying the same payload
+         */
+        PING,
+        PONG
     }
 }
@@ -2,40 +2,82 @@ package club.bottomservices.discordrpc.lib;
 
 import club.bottomservices.discordrpc.lib.exceptions.DiscordException;
 import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+import club.bottomservices.discordrpc.lib.pipe.FrameDecoder;
+import club.bottomservices.discordrpc.lib.pipe.PacketView;
 import club.bottomservices.discordrpc.lib.pipe.Pipe;
+import club.bottomservices.discordrpc.lib.pipe.PipeEventLoop;
+import club.bottomservices.discordrpc.lib.pipe.SupersedeListener;
 import club.bottomservices.discordrpc.lib.pipe.UnixPipe;
 import club.bottomservices.discordrpc.lib.pipe.WindowsPipe;
+import club.bottomservices.discordrpc.lib.pipe.WriteLane;
 import com.google.gson.Gson;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * The entrypoint of this library
  */
-public class DiscordRPCClient {
+public class DiscordRPCClient implements AutoCloseable {
     /**
      * The {@link Gson} instance used for json (de)serialization by this library
      */
     @Nonnull
     public static final Gson GSON = new Gson();
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiscordRPCClient.class);
+    private static final byte[] PRESENCE_PREFIX = ("{\"cmd\":\"SET_ACTIVITY\",\"args\":{\"pid\":" + ProcessHandle.current().pid() + ",\"activity\":")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NONCE_KEY = "\"nonce\":\"".getBytes(StandardCharsets.UTF_8);
+
     private final boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
     private final String appId;
 
     private volatile Pipe pipe = null;
+    private volatile PresenceScheduler presenceScheduler = null;
+    private final PresenceCache presenceCache = new PresenceCache();
+    private final FrameBuffer.Pool frames = new FrameBuffer.Pool(4, 2048);
+    private volatile int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    private volatile int highWaterMark = Integer.MAX_VALUE;
+    private volatile UnixPipe.OverflowPolicy overflowPolicy = UnixPipe.OverflowPolicy.DROP_SUPERSEDED;
+    private final PendingCommands commands = new PendingCommands();
+    private final SupersedeListener superseded = commands::supersede;
+    private volatile Duration commandTimeout = Duration.ofSeconds(10);
+    private volatile PipeEventLoop eventLoop = null;
+    private volatile Executor readExecutor = null;
+    private volatile ListenerDispatcher listenerDispatcher = null;
+    private volatile ReconnectSupervisor reconnectSupervisor = null;
+    private volatile HealthMonitor healthMonitor = null;
+    private volatile RichPresence lastPresence = null;
+    private volatile PresenceTemplate lastTemplate = null;
+    // Set while connected through a PresenceBroker
+    volatile PresenceBroker broker = null;
+    private volatile boolean closeRequested = false;
+    private volatile Path ipcPath = null;
+    private volatile ClientMetrics metrics = ClientMetrics.NONE;
+    private volatile IpcEvents.Handshake handshake = null;
+    private volatile long handshakeStarted;
+    private final AtomicReference<Connection> connection = new AtomicReference<>(Connection.NONE);
+    // Completed by READY of the current or next connection, replaced whenever a connection closes
+    private volatile CompletableFuture<User> ready = new CompletableFuture<>();
 
-    /**
-     * Whether a connection to discord is currently open.
-     * It is false on construction and may be true after a {@link DiscordRPCClient#connect()} call.
-     * Modifying this yourself is probably a bad idea, but it's possible if you find it necessary
-     */
-    public volatile boolean isConnected = false;
     @Nullable
     public volatile EventListener listeners;
 
@@ -59,130 +101,1069 @@ public class DiscordRPCClient {
         this(null, appId);
     }
 
-    private void close() {
-        isConnected = false;
+    @Nonnull
+    String appId() {
+        return appId;
+    }
+
+    /**
+     * Starts closing the connection, only the first caller per connection does anything
+     * @return Whether this call started the close
+     */
+    private boolean closeConnection() {
+        return closeConnection(null);
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#closeConnection()}, ignored unless the connection is still the one using the given pipe
+     */
+    private boolean closeConnection(@Nullable Pipe expected) {
+        var previous = connection.getAndUpdate(current -> switch (current.state()) {
+            case DISCONNECTED, CLOSING -> current;
+            default -> expected == null || current.pipe() == expected ? new Connection(ConnectionState.CLOSING, current.pipe()) : current;
+        });
+        if (expected != null && previous.pipe() != expected) {
+            return false;
+        }
+        switch (previous.state()) {
+            case DISCONNECTED, CLOSING -> {
+                return false;
+            }
+            // The thread in open() sees the state changed and finishes the close once the pipe exists
+            case CONNECTING -> {
+                return true;
+            }
+            default -> {
+                finishClose();
+                return true;
+            }
+        }
+    }
+
+    // Only run by the thread which moved the state to CLOSING
+    private void finishClose() {
+        var scheduler = presenceScheduler;
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+        commands.failAll(new NotConnectedException("Connection closed before discord replied"));
+        IOException failure = null;
         try {
             pipe.close();
-            // Agony
-            var listeners = this.listeners;
-            if (listeners != null) {
-                listeners.onClose(this);
-            }
         } catch (IOException e) {
-            throw new DiscordException("Failed to close DiscordRPC pipe, something may go very wrong", e);
+            failure = e;
+        }
+        var ready = this.ready;
+        this.ready = new CompletableFuture<>();
+        ready.completeExceptionally(new NotConnectedException("Connection closed before discord was ready"));
+        // Nothing is held while listeners and the supervisor run, they may connect again right away
+        connection.set(Connection.NONE);
+        if (!closeRequested) {
+            connectionLost();
+        }
+        if (failure != null) {
+            throw new DiscordException("Failed to close DiscordRPC pipe, something may go very wrong", failure);
+        }
+        // Agony
+        fire(ListenerDispatcher.Kind.CLOSE, listeners -> listeners.onClose(this));
+    }
+
+    // Each move installs a new Connection, so a stale observer can never act on a later connection which happens to be in the same state
+    private boolean advance(ConnectionState from, ConnectionState to, @Nullable Pipe pipe) {
+        var current = connection.get();
+        return current.state() == from && connection.compareAndSet(current, new Connection(to, pipe));
+    }
+
+    /**
+     * The state of the connection along with the pipe it applies to, replaced as a whole on every change
+     */
+    private record Connection(@Nonnull ConnectionState state, @Nullable Pipe pipe) {
+        static final Connection NONE = new Connection(ConnectionState.DISCONNECTED, null);
+    }
+
+    private void connectionLost() {
+        var supervisor = reconnectSupervisor;
+        if (supervisor != null) {
+            supervisor.onConnectionLost();
+        }
+        var broker = this.broker;
+        if (broker != null) {
+            broker.onConnectionLost();
+        }
+    }
+
+    // Runs a listener callback inline, or through the dispatcher if one is set
+    private void fire(ListenerDispatcher.Kind kind, Consumer<EventListener> event) {
+        if (kind == ListenerDispatcher.Kind.ERROR) {
+            metrics.onError();
+        }
+        var listeners = this.listeners;
+        if (listeners == null) {
+            return;
+        }
+        var dispatcher = listenerDispatcher;
+        if (dispatcher == null) {
+            runListener(kind, listeners, event);
+        } else {
+            dispatcher.dispatch(kind, () -> runListener(kind, listeners, event));
+        }
+    }
+
+    private void runListener(ListenerDispatcher.Kind kind, EventListener listeners, Consumer<EventListener> event) {
+        var dispatch = new IpcEvents.Dispatch();
+        dispatch.begin();
+        long start = System.nanoTime();
+        try {
+            event.accept(listeners);
+        } catch (RuntimeException e) {
+            // Same as through a dispatcher, a broken listener must not take the connection down
+            LOGGER.error("Exception in event listener", e);
+        } finally {
+            metrics.onListener(System.nanoTime() - start);
+            dispatch.end();
+            if (dispatch.shouldCommit()) {
+                dispatch.kind = kind.name();
+                dispatch.commit();
+            }
+        }
+    }
+
+    // Same as Pipe#send, but encoded into a pooled buffer
+    private void writeCommand(DiscordPacket.OpCode opCode, JsonObject message, long nonce) throws IOException {
+        long started = System.nanoTime();
+        var frame = frames.acquire();
+        try {
+            encodeCommand(frame, message, nonce);
+            writeFrame(opCode, frame.finish(opCode), started);
+        } finally {
+            frames.release(frame);
         }
     }
 
-    private void sendMessage(JsonObject message) {
-        if (!isConnected) {
+    private static void encodeCommand(FrameBuffer frame, JsonObject message, long nonce) {
+        frame.put('{').putMembers(message);
+        if (message.size() != 0) {
+            frame.put(',');
+        }
+        putNonce(frame, nonce);
+        frame.put('}');
+    }
+
+    // Leaves the frame as it was and returns false if the activity is suppressed as a repeat, see encodeActivity for the arguments
+    private boolean encodePresence(FrameBuffer frame, long nonce, @Nullable RichPresence presence, @Nullable PresenceTemplate template, @Nullable byte[] activity) {
+        int start = frame.size();
+        frame.put(PRESENCE_PREFIX);
+        if (!encodeActivity(frame, presence, template, activity)) {
+            frame.truncate(start);
+            return false;
+        }
+        frame.put('}').put(',');
+        putNonce(frame, nonce);
+        frame.put('}');
+        return true;
+    }
+
+    // Either a template, or a presence along with its encoding if it was encoded already.
+    // Plain arguments rather than a callback, so sending does not allocate
+    private boolean encodeActivity(FrameBuffer out, @Nullable RichPresence presence, @Nullable PresenceTemplate template, @Nullable byte[] activity) {
+        if (template != null) {
+            return presenceCache.encode(template, out);
+        }
+        return activity == null ? presenceCache.encode(presence, out) : presenceCache.encode(presence, activity, out);
+    }
+
+    private void writeFrame(DiscordPacket.OpCode opCode, ByteBuffer frame, long started) throws IOException {
+        writeFrame(opCode, frame, started, PacketView.NO_NONCE);
+    }
+
+    // Writes an encoded packet, reporting it to the metrics and the flight recorder.
+    // A single presence passes its nonce, letting a full write queue drop it for a newer one
+    private void writeFrame(DiscordPacket.OpCode opCode, ByteBuffer frame, long started, long presenceNonce) throws IOException {
+        int bytes = frame.remaining();
+        var send = new IpcEvents.Send();
+        send.begin();
+        long encoded = System.nanoTime();
+        var pipe = this.pipe;
+        if (presenceNonce == PacketView.NO_NONCE) {
+            pipe.write(frame);
+        } else {
+            pipe.writeSupersedable(frame, presenceNonce, superseded);
+        }
+        long written = System.nanoTime();
+        metrics.onFrameSent(bytes, encoded - started, written - encoded);
+        // A UnixPipe reports through its write listener instead, including time spent queued
+        if (!(pipe instanceof UnixPipe)) {
+            metrics.onFrameWritten(presenceNonce == PacketView.NO_NONCE ? WriteLane.COMMAND : WriteLane.PRESENCE, written - encoded);
+        }
+        send.end();
+        if (send.shouldCommit()) {
+            send.opCode = opCode.name();
+            send.bytes = bytes;
+            send.serializationTime = encoded - started;
+            send.commit();
+        }
+    }
+
+    private static void putNonce(FrameBuffer frame, long nonce) {
+        frame.put(NONCE_KEY).putLong(nonce).put('"');
+    }
+
+    // Only tracks the reply when given a timeout, returning null otherwise
+    CompletableFuture<CommandResponse> sendMessage(JsonObject message, @Nullable Duration timeout) {
+        if (!isConnected()) {
             throw new NotConnectedException("Tried to send message");
         }
 
+        long nonce = commands.nextNonce();
+        var reply = timeout == null ? null : commands.register(nonce, timeout);
         try {
-            pipe.send(DiscordPacket.OpCode.MESSAGE, message);
+            writeCommand(DiscordPacket.OpCode.MESSAGE, message, nonce);
         } catch (IOException e) {
-            var listeners = this.listeners;
-            if (listeners != null) {
-                listeners.onError(this, e, null);
-            }
+            commands.fail(nonce, e);
+            fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, e, null));
         }
+        return reply;
     }
 
     /**
-     * Attempts to open a connection to discord.
-     * It is the caller's responsibility to check for {@link DiscordRPCClient#isConnected} before calling this.
+     * Sets how long the async methods of this client wait for discord's reply before failing with a {@link java.util.concurrent.TimeoutException}
+     *
+     * @param commandTimeout The timeout, 10 seconds by default
+     */
+    public void setCommandTimeout(@Nonnull Duration commandTimeout) {
+        if (commandTimeout.isNegative() || commandTimeout.isZero()) {
+            throw new IllegalArgumentException("Command timeout must be positive");
+        }
+        this.commandTimeout = commandTimeout;
+    }
+
+    /**
+     * Sets the largest payload accepted from discord, a bigger packet fails the connection with an {@link IOException}.
+     * Takes effect on the next {@link DiscordRPCClient#connect()}
+     *
+     * @param maxFrameSize Size in bytes, {@link FrameDecoder#DEFAULT_MAX_FRAME_SIZE} by default
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize < 2) {
+            throw new IllegalArgumentException("Max frame size must fit at least an empty json object");
+        }
+        if (maxFrameSize > FrameDecoder.LARGEST_MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Max frame size must leave room for the header, the limit is " + FrameDecoder.LARGEST_MAX_FRAME_SIZE);
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Sets how the write queue is kept from growing when the connection is driven by a {@link PipeEventLoop}, where sending never waits for discord to read otherwise.
+     * Queued replies are always written before queued presences. With {@link UnixPipe.OverflowPolicy#DROP_SUPERSEDED}, the default,
+     * a presence still waiting to be written is dropped for a newer one, and the future of the dropped presence completes with the reply to the newer one.
+     * Sending a command then fails with an IOException while more than the high-water mark is queued, {@link UnixPipe.OverflowPolicy#BLOCK} waits instead.
+     * Takes effect on the next {@link DiscordRPCClient#connect()}
+     *
+     * @param highWaterMark Queued bytes above which sending a command waits or fails, depending on the policy
+     * @param policy        How the queue is bounded
+     */
+    public void setWriteHighWaterMark(int highWaterMark, @Nonnull UnixPipe.OverflowPolicy policy) {
+        if (highWaterMark <= 0) {
+            throw new IllegalArgumentException("High-water mark must be positive");
+        }
+        this.highWaterMark = highWaterMark;
+        this.overflowPolicy = policy;
+    }
+
+    /**
+     * Makes {@link DiscordRPCClient#connect()} use a specific socket or named pipe instead of looking for a discord client,
+     * for example a fake server in tests or one of several discord clients
+     *
+     * @param ipcPath The endpoint to connect to, or null to look for discord
+     */
+    public void setIpcPath(@Nullable Path ipcPath) {
+        this.ipcPath = ipcPath;
+    }
+
+    /**
+     * Attempts to open a connection to discord
      *
      * @throws club.bottomservices.discordrpc.lib.exceptions.NoDiscordException if a connection could not be opened
+     * @throws IllegalStateException If a connection is already open or being opened
      */
     public void connect() {
-        pipe = isWindows ? new WindowsPipe(this) : new UnixPipe();
+        if (!advance(ConnectionState.DISCONNECTED, ConnectionState.CONNECTING, null)) {
+            throw new IllegalStateException("Tried to connect while " + getState());
+        }
+        closeRequested = false;
+        open();
+    }
+
+    // Used by ReconnectSupervisor, does nothing if the connection was closed on purpose or opened by someone else in the meantime
+    void reconnect() {
+        if (!closeRequested && advance(ConnectionState.DISCONNECTED, ConnectionState.CONNECTING, null)) {
+            open();
+        }
+    }
+
+    // Called in CONNECTING
+    private void open() {
+        var ipcPath = this.ipcPath;
+        var handshake = new IpcEvents.Handshake();
+        handshake.begin();
+        long started = System.nanoTime();
+        var connect = new IpcEvents.Connect();
+        connect.begin();
+        boolean opened = false;
+        try {
+            if (ipcPath != null) {
+                pipe = isWindows ? new WindowsPipe(ipcPath, maxFrameSize) : new UnixPipe(ipcPath, maxFrameSize);
+            } else {
+                pipe = isWindows ? new WindowsPipe(maxFrameSize) : new UnixPipe(maxFrameSize);
+            }
+            if (pipe instanceof UnixPipe unixPipe) {
+                unixPipe.setHighWaterMark(highWaterMark, overflowPolicy);
+                unixPipe.setWriteListener((lane, nanos) -> metrics.onFrameWritten(lane, nanos));
+            }
+            opened = true;
+        } catch (RuntimeException e) {
+            // Also undoes a disconnect() that came in meanwhile, there is nothing to close
+            connection.set(Connection.NONE);
+            throw e;
+        } finally {
+            connect.end();
+            if (connect.shouldCommit()) {
+                connect.success = opened;
+                connect.commit();
+            }
+        }
+        metrics.onConnect(System.nanoTime() - started);
+        this.handshakeStarted = started;
+        this.handshake = handshake;
+        presenceCache.invalidate();
         try {
             var output = new JsonObject();
             output.addProperty("v", 1);
             output.addProperty("client_id", appId);
-            pipe.send(DiscordPacket.OpCode.HANDSHAKE, output);
-            isConnected = true;
-            new Thread(() -> {
-                while (isConnected) {
-                    try {
-                        DiscordPacket packet = pipe.read();
-
-                        // If a disconnection occurs, windows specific jank
-                        if (packet == null) {
-                            break;
-                        }
-
-                        if (packet.opCode() == DiscordPacket.OpCode.CLOSE) {
-                            close();
-                            break;
-                        }
-
-                        var json = packet.json();
-
-                        JsonElement evtJson = json.get("evt");
-                        if (evtJson != null && !evtJson.isJsonNull()) {
-                            var data = json.get("data").getAsJsonObject();
-
-                            var listeners = this.listeners;
-                            if (listeners != null) {
-                                switch (evtJson.getAsString()) {
-                                    case "READY" -> listeners.onReady(this, GSON.fromJson(data.get("user"), User.class));
-                                    case "ERROR" -> listeners.onError(this, null, GSON.fromJson(data, ErrorEvent.class));
-                                    case "ACTIVITY_JOIN" -> listeners.onActivityJoin(this, data.get("secret").getAsString());
-                                    case "ACTIVITY_SPECTATE" -> listeners.onActivitySpectate(this, data.get("secret").getAsString());
-                                    case "ACTIVITY_JOIN_REQUEST" -> listeners.onActivityJoinRequest(this, GSON.fromJson(data.get("user"), User.class));
-                                }
-                            }
-                        }
-                        // Disconnection
-                    } catch (AsynchronousCloseException | BufferUnderflowException e) {
-                        isConnected = false;
+            var broker = this.broker;
+            if (broker != null) {
+                output.addProperty("priority", broker.getPriority());
+            }
+            writeCommand(DiscordPacket.OpCode.HANDSHAKE, output, commands.nextNonce());
+        } catch (IOException e) {
+            fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, e, null));
+            advance(ConnectionState.CONNECTING, ConnectionState.CLOSING, pipe);
+            finishClose();
+            return;
+        }
+        // Only now, so nothing else is written before the handshake
+        if (!advance(ConnectionState.CONNECTING, ConnectionState.HANDSHAKING, pipe)) {
+            // disconnect() came in meanwhile and left the close to this thread
+            finishClose();
+            return;
+        }
+        startReading(pipe);
+    }
+
+    private void startReading(Pipe pipe) {
+        var eventLoop = this.eventLoop;
+        if (eventLoop != null && pipe instanceof UnixPipe unixPipe) {
+            eventLoop.register(unixPipe, new PipeEventLoop.Handler() {
+                @Override
+                public void onPacket(@Nonnull PacketView packet) throws IOException {
+                    handlePacket(packet);
+                }
+
+                @Override
+                public void onFailure(@Nonnull IOException exception) {
+                    handleReadFailure(pipe, exception);
+                }
+            });
+            return;
+        }
+
+        // Keeps reading while a graceful disconnect waits for replies
+        Runnable readLoop = () -> {
+            while (this.pipe == pipe && getState() != ConnectionState.DISCONNECTED) {
+                try {
+                    // If a disconnection occurs, windows specific jank
+                    if (!pipe.read(this::handlePacket)) {
+                        handleReadFailure(pipe, new EOFException("Discord closed the pipe"));
                         break;
-                    } catch (IOException e) {
-                        var listeners = this.listeners;
-                        if (listeners != null) {
-                            listeners.onError(this, e, null);
-                        }
-                        close();
                     }
+                } catch (IOException | RuntimeException e) {
+                    // The connection is closed either way
+                    handleReadFailure(pipe, e);
+                    break;
                 }
-            }, "DiscordRPC Read Thread").start();
+            }
+        };
+        var readExecutor = this.readExecutor;
+        if (readExecutor != null) {
+            readExecutor.execute(readLoop);
+        } else {
+            new Thread(readLoop, "DiscordRPC Read Thread").start();
+        }
+    }
+
+    private void handlePacket(PacketView packet) throws IOException {
+        metrics.onFrameReceived(packet.size());
+        var receive = new IpcEvents.Receive();
+        receive.begin();
+        try {
+            dispatchPacket(packet);
+        } catch (RuntimeException e) {
+            // Gson and the event decoder throw these for json of unexpected shape, listeners cannot as they are guarded
+            throw new IOException("Received malformed packet payload", e);
+        } finally {
+            receive.end();
+            if (receive.shouldCommit()) {
+                receive.opCode = packet.opCode().name();
+                receive.evt = packet.evt();
+                receive.bytes = packet.size();
+                receive.commit();
+            }
+        }
+    }
+
+    // Only parses as much of the packet as pending commands and listeners need
+    private void dispatchPacket(PacketView packet) throws IOException {
+        if (packet.opCode() == DiscordPacket.OpCode.CLOSE) {
+            closeConnection();
+            return;
+        }
+        if (packet.opCode() == DiscordPacket.OpCode.PING) {
+            pipe.write(new DiscordPacket(DiscordPacket.OpCode.PONG, packet.toPacket().json()).toBytes());
+            return;
+        }
+
+        commands.complete(packet);
+
+        String evt = packet.evt();
+        if (evt == null) {
+            return;
+        }
+        if (evt.equals("READY")) {
+            onReady(packet);
+            return;
+        }
+        if (this.listeners == null) {
+            return;
+        }
+        var data = packet.data();
+        if (data == null) {
+            return;
+        }
+        switch (evt) {
+            case "ERROR" -> {
+                var error = EventDecoder.readError(data);
+                fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, null, error));
+            }
+            case "ACTIVITY_JOIN" -> {
+                var secret = EventDecoder.readString(data, "secret");
+                if (secret != null) {
+                    fire(ListenerDispatcher.Kind.ACTIVITY_JOIN, listeners -> listeners.onActivityJoin(this, secret));
+                }
+            }
+            case "ACTIVITY_SPECTATE" -> {
+                var secret = EventDecoder.readString(data, "secret");
+                if (secret != null) {
+                    fire(ListenerDispatcher.Kind.ACTIVITY_SPECTATE, listeners -> listeners.onActivitySpectate(this, secret));
+                }
+            }
+            case "ACTIVITY_JOIN_REQUEST" -> {
+                var user = EventDecoder.readUser(data, "user");
+                if (user != null) {
+                    fire(ListenerDispatcher.Kind.ACTIVITY_JOIN_REQUEST, listeners -> listeners.onActivityJoinRequest(this, user));
+                }
+            }
+        }
+    }
+
+    private void onReady(PacketView packet) throws IOException {
+        var handshake = this.handshake;
+        if (handshake != null) {
+            this.handshake = null;
+            metrics.onHandshake(System.nanoTime() - handshakeStarted);
+            handshake.commit();
+        }
+        var data = packet.data();
+        var user = data == null ? null : EventDecoder.readUser(data, "user");
+        if (!advance(ConnectionState.HANDSHAKING, ConnectionState.READY, pipe)) {
+            // Closing already
+            return;
+        }
+        ready.complete(user);
+        var supervisor = reconnectSupervisor;
+        if (supervisor != null && supervisor.onReady()) {
+            replayPresence();
+        }
+        if (user != null) {
+            fire(ListenerDispatcher.Kind.READY, listeners -> listeners.onReady(this, user));
+        }
+    }
+
+    private void handleReadFailure(Pipe pipe, Exception e) {
+        // A read loop outliving its connection
+        if (this.pipe != pipe) {
+            return;
+        }
+        var current = connection.get();
+        if (current.state() == ConnectionState.CLOSING && current.pipe() == pipe) {
+            // Closed on purpose, or discord went away during a graceful disconnect which then stops waiting for replies
+            commands.failAll(new NotConnectedException("Connection closed before discord replied"));
+            return;
+        }
+        // Disconnection, or the pipe was closed by disconnect() in which case this does nothing
+        if (e instanceof AsynchronousCloseException || e instanceof BufferUnderflowException || e instanceof EOFException) {
+            closeConnection(pipe);
+            return;
+        }
+
+        var exception = e instanceof IOException io ? io : new IOException("Failed to read from discord", e);
+        fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, exception, null));
+        closeConnection(pipe);
+    }
+
+    /**
+     * Sets the metrics this client reports frames, latencies, listener time and errors to, nothing is measured by default.
+     * Independently of this, connecting, sending, receiving and listener dispatch are recorded as flight recorder events in the {@code DiscordRPC} category
+     *
+     * @param metrics The metrics to report to, for example a {@link CounterMetrics}, or null to stop reporting
+     */
+    public void setMetrics(@Nullable ClientMetrics metrics) {
+        var set = metrics == null ? ClientMetrics.NONE : metrics;
+        this.metrics = set;
+        commands.setMetrics(set);
+    }
+
+    /**
+     * Sets the event loop that connections opened by {@link DiscordRPCClient#connect()} are serviced by, instead of a dedicated read thread.
+     * One loop can be shared by any number of clients, windows pipes always use a dedicated thread
+     *
+     * @param eventLoop The loop to use, or null to go back to a read thread per connection
+     */
+    public void setEventLoop(@Nullable PipeEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Sets the dispatcher that {@link EventListener} callbacks are run through, by default they run inline on the thread reading from discord
+     *
+     * @param listenerDispatcher The dispatcher to use, or null to run listeners inline
+     */
+    public void setListenerDispatcher(@Nullable ListenerDispatcher listenerDispatcher) {
+        this.listenerDispatcher = listenerDispatcher;
+    }
+
+    /**
+     * Sets the executor that runs the blocking read loop of connections opened by {@link DiscordRPCClient#connect()},
+     * the loop occupies its thread for as long as the connection is open.
+     * Ignored for connections serviced by a {@link PipeEventLoop}
+     *
+     * @param readExecutor The executor to use, or null to start a new platform thread per connection
+     */
+    public void setReadExecutor(@Nullable Executor readExecutor) {
+        this.readExecutor = readExecutor;
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#setReadExecutor(Executor)}, starting a thread from the given factory per connection
+     */
+    public void setReadThreadFactory(@Nonnull ThreadFactory threadFactory) {
+        setReadExecutor(runnable -> threadFactory.newThread(runnable).start());
+    }
+
+    /**
+     * Runs the read loop of each connection on its own virtual thread instead of a platform thread,
+     * the jmh IdleConnectionBenchmark compares the two for many idle connections.
+     * Blocking reads on unix sockets and closing the pipe do not pin the carrier thread
+     *
+     * @throws UnsupportedOperationException If the runtime is older than Java 21
+     */
+    public void useVirtualThreads() {
+        setReadThreadFactory(virtualThreadFactory());
+    }
+
+    // Looked up reflectively, this library targets Java 17
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            var builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class).invoke(builder, "DiscordRPC Read Thread");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer", e);
+        }
+    }
+
+    /**
+     * Makes this client reopen its connection whenever it is lost without {@link DiscordRPCClient#disconnect()} being called,
+     * waiting {@code initialDelay} before the first attempt and doubling the wait after each failed one up to {@code maxDelay}.
+     * Once discord is ready again the last presence passed to {@link DiscordRPCClient#sendPresence(RichPresence)} is sent again
+     *
+     * @return The installed supervisor, which exposes reconnect statistics
+     */
+    @Nonnull
+    public ReconnectSupervisor enableAutoReconnect(@Nonnull Duration initialDelay, @Nonnull Duration maxDelay) {
+        var supervisor = new ReconnectSupervisor(this, initialDelay, maxDelay);
+        var previous = reconnectSupervisor;
+        reconnectSupervisor = supervisor;
+        if (previous != null) {
+            previous.stop();
+        }
+        return supervisor;
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#enableAutoReconnect(Duration, Duration)}, starting at 1 second and backing off up to a minute
+     *
+     * @return The installed supervisor, which exposes reconnect statistics
+     */
+    @Nonnull
+    public ReconnectSupervisor enableAutoReconnect() {
+        return enableAutoReconnect(Duration.ofSeconds(1), Duration.ofMinutes(1));
+    }
+
+    /**
+     * Removes the supervisor installed by {@link DiscordRPCClient#enableAutoReconnect(Duration, Duration)}, cancelling any pending attempt
+     */
+    public void disableAutoReconnect() {
+        var supervisor = reconnectSupervisor;
+        reconnectSupervisor = null;
+        if (supervisor != null) {
+            supervisor.stop();
+        }
+    }
+
+    /**
+     * Makes this client ping discord every {@code interval} while connected, measuring round trip times.
+     * A ping not answered within {@code stallThreshold} closes the connection as lost, so an enabled {@link ReconnectSupervisor} reopens it
+     *
+     * @return The installed monitor, which exposes round trip times and stall counts
+     */
+    @Nonnull
+    public HealthMonitor enableHealthMonitor(@Nonnull Duration interval, @Nonnull Duration stallThreshold) {
+        var monitor = new HealthMonitor(this, interval, stallThreshold);
+        var previous = healthMonitor;
+        healthMonitor = monitor;
+        if (previous != null) {
+            previous.stop();
+        }
+        return monitor;
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#enableHealthMonitor(Duration, Duration)}, pinging every 15 seconds with a stall threshold of 5 seconds
+     *
+     * @return The installed monitor, which exposes round trip times and stall counts
+     */
+    @Nonnull
+    public HealthMonitor enableHealthMonitor() {
+        return enableHealthMonitor(Duration.ofSeconds(15), Duration.ofSeconds(5));
+    }
+
+    /**
+     * Removes the monitor installed by {@link DiscordRPCClient#enableHealthMonitor(Duration, Duration)}
+     */
+    public void disableHealthMonitor() {
+        var monitor = healthMonitor;
+        healthMonitor = null;
+        if (monitor != null) {
+            monitor.stop();
+        }
+    }
+
+    // Used by HealthMonitor, discord echoes the nonce of a PING in its PONG, which completes the command like a reply
+    @Nonnull
+    CompletableFuture<CommandResponse> ping(@Nonnull Duration timeout) {
+        if (!isConnected()) {
+            throw new NotConnectedException("Tried to ping");
+        }
+        long nonce = commands.nextNonce();
+        var reply = commands.register(nonce, timeout);
+        try {
+            writeCommand(DiscordPacket.OpCode.PING, new JsonObject(), nonce);
         } catch (IOException e) {
-            var listeners = this.listeners;
-            if (listeners != null) {
-                listeners.onError(this, e, null);
+            commands.fail(nonce, e);
+        }
+        return reply;
+    }
+
+    @Nullable
+    Pipe currentPipe() {
+        return connection.get().pipe();
+    }
+
+    // Used by HealthMonitor, closes the connection as lost unless it was replaced meanwhile
+    void closeStalled(@Nullable Pipe pipe, @Nonnull Duration stallThreshold) {
+        if (pipe == null || connection.get().pipe() != pipe) {
+            return;
+        }
+        var e = new IOException("Discord did not answer a ping within " + stallThreshold.toMillis() + " ms");
+        fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, e, null));
+        closeConnection(pipe);
+    }
+
+    void replayPresence() {
+        var template = lastTemplate;
+        var presence = lastPresence;
+        try {
+            if (template != null) {
+                sendPresence(template);
+            } else if (presence != null) {
+                sendPresence(presence);
             }
-            close();
+        } catch (NotConnectedException ignored) {
+            // Lost again already, it is replayed on the next reconnect
+        }
+    }
+
+    /**
+     * Routes {@link DiscordRPCClient#sendPresence(RichPresence)} through a {@link PresenceScheduler},
+     * writing at most {@code updates} presences per {@code window} and coalescing everything in between
+     *
+     * @return The installed scheduler, which exposes coalescing statistics
+     */
+    @Nonnull
+    public PresenceScheduler schedulePresence(int updates, @Nonnull Duration window) {
+        var scheduler = new PresenceScheduler(this::writePresence, updates, window);
+        var previous = presenceScheduler;
+        presenceScheduler = scheduler;
+        if (previous != null) {
+            previous.cancel();
+        }
+        return scheduler;
+    }
+
+    /**
+     * Routes {@link DiscordRPCClient#sendPresence(RichPresence)} through a {@link PresenceScheduler} using discord's own limit of 5 updates per 20 seconds
+     *
+     * @return The installed scheduler, which exposes coalescing statistics
+     */
+    @Nonnull
+    public PresenceScheduler schedulePresence() {
+        return schedulePresence(5, Duration.ofSeconds(20));
+    }
+
+    /**
+     * Removes the scheduler installed by {@link DiscordRPCClient#schedulePresence(int, Duration)}, any pending presence is dropped
+     */
+    public void unschedulePresence() {
+        var scheduler = presenceScheduler;
+        presenceScheduler = null;
+        if (scheduler != null) {
+            scheduler.cancel();
         }
     }
 
     /**
+     * Sends a presence to discord, if a {@link PresenceScheduler} is installed the write may be delayed or coalesced with later calls
+     *
      * @param presence The {@link RichPresence} instance to send to discord
      * @see RichPresence.Builder
      */
     public void sendPresence(@Nonnull RichPresence presence) {
-        var output = new JsonObject();
-        output.addProperty("cmd", "SET_ACTIVITY");
+        remember(presence, null);
+        var scheduler = presenceScheduler;
+        if (scheduler != null) {
+            scheduler.submit(presence);
+        } else {
+            writePresence(presence, null);
+        }
+    }
 
-        var args = new JsonObject();
-        args.addProperty("pid", ProcessHandle.current().pid());
-        args.add("activity", GSON.toJsonTree(presence));
-        output.add("args", args);
-        sendMessage(output);
+    /**
+     * Same as {@link DiscordRPCClient#sendPresence(RichPresence)}, waiting for discord's reply up to the timeout set by {@link DiscordRPCClient#setCommandTimeout(Duration)}
+     *
+     * @return A future completed with discord's reply, failing with a {@link club.bottomservices.discordrpc.lib.exceptions.CommandException} if discord rejected the presence.
+     * If the presence was coalesced by a {@link PresenceScheduler} this is the reply to the presence that replaced it
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> sendPresenceAsync(@Nonnull RichPresence presence) {
+        return sendPresenceAsync(presence, commandTimeout);
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#sendPresenceAsync(RichPresence)} with a timeout for this presence only
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> sendPresenceAsync(@Nonnull RichPresence presence, @Nonnull Duration timeout) {
+        remember(presence, null);
+        if (!isConnected()) {
+            return CompletableFuture.failedFuture(new NotConnectedException("Tried to send presence"));
+        }
+        var scheduler = presenceScheduler;
+        return scheduler != null ? scheduler.submit(presence, timeout) : writePresence(presence, timeout);
     }
 
     /**
-     * Closes a connection to discord
+     * Sends the current values of a template, encoding only the slots which changed since the template last went out.
+     * If a {@link PresenceScheduler} is installed the template is handed to it as a {@link RichPresence}, losing that advantage
+     *
+     * @see PresenceTemplate
+     */
+    public void sendPresence(@Nonnull PresenceTemplate template) {
+        remember(null, template);
+        var scheduler = presenceScheduler;
+        if (scheduler != null) {
+            scheduler.submit(template.toPresence());
+        } else {
+            writeTemplate(template, null);
+        }
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#sendPresence(PresenceTemplate)}, waiting for discord's reply up to the timeout set by {@link DiscordRPCClient#setCommandTimeout(Duration)}
+     *
+     * @return A future completed with discord's reply, see {@link DiscordRPCClient#sendPresenceAsync(RichPresence)}
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> sendPresenceAsync(@Nonnull PresenceTemplate template) {
+        remember(null, template);
+        if (!isConnected()) {
+            return CompletableFuture.failedFuture(new NotConnectedException("Tried to send presence"));
+        }
+        var scheduler = presenceScheduler;
+        return scheduler != null ? scheduler.submit(template.toPresence(), commandTimeout) : writeTemplate(template, commandTimeout);
+    }
+
+    // Used by MultiInstanceClient, which encodes a presence once for all of its connections
+    void sendPresence(@Nonnull RichPresence presence, @Nonnull byte[] activity) {
+        remember(presence, null);
+        var scheduler = presenceScheduler;
+        if (scheduler != null) {
+            scheduler.submit(presence);
+        } else {
+            writeActivity(presence, null, activity, null);
+        }
+    }
+
+    // The presence sent again after a reconnect, only one of them is set
+    private void remember(@Nullable RichPresence presence, @Nullable PresenceTemplate template) {
+        lastPresence = presence;
+        lastTemplate = template;
+    }
+
+    // Presences equal to the last written one are suppressed, see PresenceCache
+    private CompletableFuture<CommandResponse> writePresence(RichPresence presence, @Nullable Duration timeout) {
+        return writeActivity(presence, null, null, timeout);
+    }
+
+    private CompletableFuture<CommandResponse> writeTemplate(PresenceTemplate template, @Nullable Duration timeout) {
+        return writeActivity(null, template, null, timeout);
+    }
+
+    private CompletableFuture<CommandResponse> writeActivity(@Nullable RichPresence presence, @Nullable PresenceTemplate template, @Nullable byte[] activity,
+                                                             @Nullable Duration timeout) {
+        if (!isConnected()) {
+            throw new NotConnectedException("Tried to send presence");
+        }
+
+        long started = System.nanoTime();
+        long nonce = commands.nextNonce();
+        CompletableFuture<CommandResponse> reply = null;
+        var frame = frames.acquire();
+        try {
+            if (!encodePresence(frame, nonce, presence, template, activity)) {
+                return timeout == null ? null : CompletableFuture.completedFuture(new CommandResponse(null, Duration.ZERO));
+            }
+            reply = timeout == null ? null : commands.register(nonce, timeout);
+            writeFrame(DiscordPacket.OpCode.MESSAGE, frame.finish(DiscordPacket.OpCode.MESSAGE), started, nonce);
+        } catch (IOException e) {
+            presenceCache.invalidate();
+            commands.fail(nonce, e);
+            fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, e, null));
+        } finally {
+            frames.release(frame);
+        }
+        return reply;
+    }
+
+    /**
+     * Closes a connection to discord, a {@link ReconnectSupervisor} does not reopen it
      *
      * @throws NotConnectedException If a connection was not open
      * @throws DiscordException      If closing the pipe fails
      */
     public void disconnect() {
-        if (!isConnected) {
+        closeRequested = true;
+        var supervisor = reconnectSupervisor;
+        if (supervisor != null) {
+            supervisor.cancel();
+        }
+        if (!closeConnection()) {
             throw new NotConnectedException("Tried to disconnect");
         }
+    }
 
-        close();
+    /**
+     * Closes a connection to discord gracefully, a {@link ReconnectSupervisor} does not reopen it.
+     * New commands are refused right away, a presence held back by a {@link PresenceScheduler} is written regardless of its rate limit,
+     * and queued packets are written and replies to sent commands awaited until the deadline.
+     * Discord is then sent a CLOSE packet and the pipe is closed, failing whatever is still unanswered
+     *
+     * @param timeout How long to wait for queued packets and replies in total
+     * @return What was left undelivered
+     * @throws NotConnectedException If a connection was not open
+     * @throws DiscordException      If closing the pipe fails
+     */
+    @Nonnull
+    public ShutdownReport disconnect(@Nonnull Duration timeout) {
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        closeRequested = true;
+        var supervisor = reconnectSupervisor;
+        if (supervisor != null) {
+            supervisor.cancel();
+        }
+        var scheduler = presenceScheduler;
+        if (scheduler != null) {
+            try {
+                scheduler.flushNow();
+            } catch (NotConnectedException ignored) {
+                // Reported below
+            }
+        }
+
+        var current = connection.get();
+        boolean open = current.state() == ConnectionState.HANDSHAKING || current.state() == ConnectionState.READY;
+        if (!open || !connection.compareAndSet(current, new Connection(ConnectionState.CLOSING, current.pipe()))) {
+            // Still connecting, or closed by someone else meanwhile
+            if (!closeConnection()) {
+                throw new NotConnectedException("Tried to disconnect");
+            }
+            return new ShutdownReport(0, 0, false, Duration.ofNanos(System.nanoTime() - start));
+        }
+
+        // Only this thread closes the connection from now on, the read loop keeps going to receive replies
+        var pipe = current.pipe();
+        pipe.awaitWritten(deadline - System.nanoTime());
+        commands.awaitAll(deadline - System.nanoTime());
+        int unanswered = commands.size();
+        boolean closeSent = false;
+        try {
+            writeClose();
+            closeSent = pipe.awaitWritten(deadline - System.nanoTime());
+        } catch (IOException ignored) {
+            // Reported as not sent
+        }
+        long unwritten = pipe instanceof UnixPipe unixPipe ? unixPipe.getQueuedBytes() : 0;
+        finishClose();
+        return new ShutdownReport(unanswered, unwritten, closeSent, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private void writeClose() throws IOException {
+        long started = System.nanoTime();
+        var frame = frames.acquire();
+        try {
+            frame.put('{').put('}');
+            writeFrame(DiscordPacket.OpCode.CLOSE, frame.finish(DiscordPacket.OpCode.CLOSE), started);
+        } finally {
+            frames.release(frame);
+        }
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#disconnect(Duration)} with a deadline of a second, does nothing if no connection is open
+     */
+    @Override
+    public void close() {
+        if (isConnected()) {
+            try {
+                disconnect(Duration.ofSeconds(1));
+            } catch (NotConnectedException ignored) {
+                // Closed meanwhile
+            }
+        }
+    }
+
+    /**
+     * @return Whether a connection to discord is open, meaning the handshake was sent, and commands can be written
+     */
+    public boolean isConnected() {
+        var current = connection.get().state();
+        return current == ConnectionState.HANDSHAKING || current == ConnectionState.READY;
+    }
+
+    /**
+     * @return The state of the connection, which may change as soon as this returns
+     */
+    @Nonnull
+    public ConnectionState getState() {
+        return connection.get().state();
+    }
+
+    /**
+     * Returns a future completed once discord sent READY, for the open connection or while disconnected for the next one.
+     * It fails with a {@link NotConnectedException} if the connection closes before that.
+     * Dependent actions run on the thread reading from discord unless an executor is given
+     *
+     * @return A future of the connected user, null if discord did not send one
+     */
+    @Nonnull
+    public CompletableFuture<User> whenReady() {
+        return ready.copy();
+    }
+
+    /**
+     * Sends several commands with a single write, for example a presence update along with responses to join requests.
+     * The callback adds commands to the batch, each with its own future, and they are written once it returns
+     *
+     * @param commands Adds commands to the batch, nothing is written if it throws
+     * @throws NotConnectedException If a connection was not open
+     */
+    public void batch(@Nonnull Consumer<CommandBatch> commands) {
+        if (!isConnected()) {
+            throw new NotConnectedException("Tried to send batch");
+        }
+
+        long started = System.nanoTime();
+        var frame = frames.acquire();
+        var batch = new CommandBatch(this, frame, commandTimeout);
+        try {
+            commands.accept(batch);
+            var packets = batch.finish();
+            if (packets != null) {
+                writeFrame(DiscordPacket.OpCode.MESSAGE, packets, started);
+            }
+        } catch (IOException e) {
+            presenceCache.invalidate();
+            failBatch(batch, e);
+            fire(ListenerDispatcher.Kind.ERROR, listeners -> listeners.onError(this, e, null));
+        } catch (RuntimeException e) {
+            presenceCache.invalidate();
+            failBatch(batch, e);
+            throw e;
+        } finally {
+            frames.release(frame);
+        }
+    }
+
+    private void failBatch(CommandBatch batch, Throwable cause) {
+        batch.finish();
+        for (long nonce : batch.nonces()) {
+            this.commands.fail(nonce, cause);
+        }
+    }
+
+    @Nonnull
+    CompletableFuture<CommandResponse> batchPresence(CommandBatch batch, RichPresence presence, Duration timeout) {
+        remember(presence, null);
+        var scheduler = presenceScheduler;
+        if (scheduler != null) {
+            return scheduler.submit(presence, timeout);
+        }
+        long nonce = commands.nextNonce();
+        if (!encodePresence(batch.packet(), nonce, presence, null, null)) {
+            return CompletableFuture.completedFuture(new CommandResponse(null, Duration.ZERO));
+        }
+        batch.track(nonce);
+        return commands.register(nonce, timeout);
+    }
+
+    @Nonnull
+    CompletableFuture<CommandResponse> batchMessage(CommandBatch batch, JsonObject message, Duration timeout) {
+        long nonce = commands.nextNonce();
+        encodeCommand(batch.packet(), message, nonce);
+        batch.track(nonce);
+        return commands.register(nonce, timeout);
     }
 
     /**
@@ -192,9 +1173,34 @@ public class DiscordRPCClient {
      * @param accepted Whether this should accept the request
      */
     public void respond(String userId, boolean accepted) {
+        sendMessage(respondMessage(userId, accepted), null);
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#respond(String, boolean)}, waiting for discord's reply up to the timeout set by {@link DiscordRPCClient#setCommandTimeout(Duration)}
+     *
+     * @return A future completed with discord's reply, failing with a {@link club.bottomservices.discordrpc.lib.exceptions.CommandException} if discord rejected the response
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> respondAsync(String userId, boolean accepted) {
+        return respondAsync(userId, accepted, commandTimeout);
+    }
+
+    /**
+     * Same as {@link DiscordRPCClient#respondAsync(String, boolean)} with a timeout for this response only
+     */
+    @Nonnull
+    public CompletableFuture<CommandResponse> respondAsync(String userId, boolean accepted, @Nonnull Duration timeout) {
+        if (!isConnected()) {
+            return CompletableFuture.failedFuture(new NotConnectedException("Tried to send message"));
+        }
+        return sendMessage(respondMessage(userId, accepted), timeout);
+    }
+
+    static JsonObject respondMessage(String userId, boolean accepted) {
         var output = new JsonObject();
         output.addProperty("cmd", accepted ? "SEND_ACTIVITY_JOIN_INVITE" : "CLOSE_ACTIVITY_REQUEST");
         output.addProperty("user_id", userId);
-        sendMessage(output);
+        return output;
     }
 }
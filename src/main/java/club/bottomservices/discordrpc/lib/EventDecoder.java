@@ -0,0 +1,90 @@
+package club.bottomservices.discordrpc.lib;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Binds event data straight from a {@link JsonReader}, without building a tree or going through reflection
+ */
+final class EventDecoder {
+    private EventDecoder() {
+    }
+
+    /**
+     * Advances a reader positioned at an object to the value of one of its members
+     * @return Whether the member exists and is not null
+     */
+    static boolean enter(@Nonnull JsonReader reader, @Nonnull String member) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return false;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(member)) {
+                return reader.peek() != JsonToken.NULL;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    @Nullable
+    static String readString(@Nonnull JsonReader reader, @Nonnull String member) throws IOException {
+        return enter(reader, member) ? reader.nextString() : null;
+    }
+
+    @Nullable
+    static User readUser(@Nonnull JsonReader reader, @Nonnull String member) throws IOException {
+        if (!enter(reader, member)) {
+            return null;
+        }
+        var user = new User();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id" -> user.id = nullableString(reader);
+                case "username" -> user.username = nullableString(reader);
+                case "discriminator" -> user.discriminator = nullableString(reader);
+                case "avatar" -> user.avatar = nullableString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return user;
+    }
+
+    @Nonnull
+    static ErrorEvent readError(@Nullable JsonReader reader) throws IOException {
+        var error = new ErrorEvent();
+        if (reader == null || reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return error;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "code" -> error.code = reader.peek() == JsonToken.NULL ? skipNull(reader) : reader.nextInt();
+                case "message" -> error.message = nullableString(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return error;
+    }
+
+    private static String nullableString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static int skipNull(JsonReader reader) throws IOException {
+        reader.nextNull();
+        return 0;
+    }
+}
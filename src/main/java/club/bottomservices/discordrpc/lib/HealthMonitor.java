@@ -0,0 +1,108 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Periodically pings discord while the connection is ready and records the round trip times, so a wedged connection can be told from a healthy one.
+ * A ping is a PING packet carrying a nonce, which discord echoes back in a PONG, and it goes through the same write queue as everything else,
+ * so round trip times include the delay presences see.
+ * A ping not answered within the stall threshold closes the connection through the normal path, which a {@link ReconnectSupervisor} then reopens.
+ * Half-open sockets, where reads block forever, are recovered from this way
+ * @see DiscordRPCClient#enableHealthMonitor(Duration, Duration)
+ */
+public final class HealthMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HealthMonitor.class);
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "DiscordRPC Health Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DiscordRPCClient client;
+    private final Duration stallThreshold;
+    private final ScheduledFuture<?> task;
+    private final LatencyHistogram roundTripTime = new LatencyHistogram();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+
+    HealthMonitor(@Nonnull DiscordRPCClient client, @Nonnull Duration interval, @Nonnull Duration stallThreshold) {
+        if (interval.isNegative() || interval.isZero() || stallThreshold.isNegative() || stallThreshold.isZero()) {
+            throw new IllegalArgumentException("Health monitor interval and stall threshold must be positive");
+        }
+        this.client = client;
+        this.stallThreshold = stallThreshold;
+        long nanos = interval.toNanos();
+        this.task = TIMER.scheduleWithFixedDelay(this::probe, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // A ping still awaiting its reply is not followed by another one, it either arrives or times out
+    private void probe() {
+        if (client.getState() != ConnectionState.READY || !probing.compareAndSet(false, true)) {
+            return;
+        }
+        var connection = client.currentPipe();
+        try {
+            // Handled on the monitor's thread rather than the reader's or the timeout's, closing runs listeners and the reconnect supervisor
+            client.ping(stallThreshold).whenCompleteAsync((response, error) -> {
+                probing.set(false);
+                if (error == null) {
+                    roundTripTime.record(response.latency().toNanos());
+                } else if (error instanceof TimeoutException) {
+                    stalls.increment();
+                    LOGGER.warn("Discord did not answer a ping within {} ms, closing the connection", stallThreshold.toMillis());
+                    client.closeStalled(connection, stallThreshold);
+                }
+            }, TIMER);
+            probes.increment();
+        } catch (NotConnectedException e) {
+            // Closed meanwhile
+            probing.set(false);
+        }
+    }
+
+    void stop() {
+        task.cancel(false);
+    }
+
+    /**
+     * @return Round trip times of answered pings, for percentiles such as p50 and p99 and the maximum
+     */
+    @Nonnull
+    public LatencyHistogram getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    /**
+     * @return How many pings were sent
+     */
+    public long getProbeCount() {
+        return probes.sum();
+    }
+
+    /**
+     * @return How many pings went unanswered past the stall threshold, each of which closed the connection
+     */
+    public long getStallCount() {
+        return stalls.sum();
+    }
+
+    /**
+     * @return Whether a ping is currently awaiting its reply
+     */
+    public boolean isProbing() {
+        return probing.get();
+    }
+}
@@ -0,0 +1,83 @@
+package club.bottomservices.discordrpc.lib;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder events emitted by {@link DiscordRPCClient}, all disabled unless a recording enables them
+ */
+final class IpcEvents {
+    private static final String CATEGORY = "DiscordRPC";
+
+    private IpcEvents() {
+    }
+
+    @Name("club.bottomservices.discordrpc.Connect")
+    @Label("Connect")
+    @Description("Finding and opening a pipe to discord")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Connect extends Event {
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("club.bottomservices.discordrpc.Handshake")
+    @Label("Handshake")
+    @Description("From starting to connect until discord sent READY")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Handshake extends Event {
+    }
+
+    @Name("club.bottomservices.discordrpc.Send")
+    @Label("Send")
+    @Description("Writing a packet to discord")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Send extends Event {
+        @Label("Opcode")
+        String opCode;
+
+        @Label("Size")
+        @DataAmount
+        int bytes;
+
+        @Label("Serialization Time")
+        @Timespan
+        long serializationTime;
+    }
+
+    @Name("club.bottomservices.discordrpc.Receive")
+    @Label("Receive")
+    @Description("Handling a packet received from discord, including listeners run inline")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Receive extends Event {
+        @Label("Opcode")
+        String opCode;
+
+        @Label("Event")
+        String evt;
+
+        @Label("Size")
+        @DataAmount
+        int bytes;
+    }
+
+    @Name("club.bottomservices.discordrpc.Dispatch")
+    @Label("Dispatch")
+    @Description("Running a listener callback")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Dispatch extends Event {
+        @Label("Kind")
+        String kind;
+    }
+}
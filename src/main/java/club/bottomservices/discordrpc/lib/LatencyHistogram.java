@@ -0,0 +1,113 @@
+package club.bottomservices.discordrpc.lib;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * Each power of two is split into 8 buckets, so reported percentiles are within 12.5% of the recorded values
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a duration, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(index(nanos));
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    // The largest value that falls into a bucket
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        long sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @return How many durations were recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Nonnull
+    public Duration getMax() {
+        return Duration.ofNanos(max.get());
+    }
+
+    @Nonnull
+    public Duration getMean() {
+        long count = this.count.sum();
+        return Duration.ofNanos(count == 0 ? 0 : sum.sum() / count);
+    }
+
+    /**
+     * Reads are not atomic with respect to concurrent recording, which may skew the result by the values recorded meanwhile
+     * @param percentile Between 0 and 100
+     * @return A duration at least as long as the given percentage of recorded durations, zero if nothing was recorded
+     */
+    @Nonnull
+    public Duration getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long total = 0;
+        var counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return Duration.ZERO;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Duration.ofNanos(Math.min(upperBound(i), max.get()));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Discards every recorded duration
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+}
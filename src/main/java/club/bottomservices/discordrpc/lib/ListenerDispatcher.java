@@ -0,0 +1,197 @@
+package club.bottomservices.discordrpc.lib;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs {@link EventListener} callbacks on an executor instead of the thread reading from discord,
+ * so a slow listener never stalls reading. Events go through a bounded queue and are delivered one at a time, in order.
+ * Only activity events are ever discarded, READY, ERROR and CLOSE are always delivered
+ * @see DiscordRPCClient#setListenerDispatcher(ListenerDispatcher)
+ */
+public final class ListenerDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListenerDispatcher.class);
+
+    /**
+     * What happens to a new event when the queue is full, and with {@link OverflowPolicy#COALESCE} before that.
+     * With the dropping policies READY, ERROR and CLOSE are queued past the capacity if only they are left to drop
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for space, stalling the reading thread like inline listeners would.
+         * A listener dispatching an event itself does not wait, as only its own thread could make space
+         */
+        BLOCK,
+        /**
+         * Discard the oldest queued activity event, or the new one if it is an activity event and none is queued
+         */
+        DROP_OLDEST,
+        /**
+         * A new activity event replaces the queued one of the same type whether or not the queue is full, so at most one event of each type waits
+         * and listeners only see the latest. When the queue is full with other events it is like {@link OverflowPolicy#DROP_OLDEST}
+         */
+        COALESCE
+    }
+
+    enum Kind {
+        READY(false),
+        ERROR(false),
+        CLOSE(false),
+        ACTIVITY_JOIN(true),
+        ACTIVITY_SPECTATE(true),
+        ACTIVITY_JOIN_REQUEST(true);
+
+        // Whether the event may be discarded when the queue is full, the connection's lifecycle must always reach the listener
+        final boolean droppable;
+
+        Kind(boolean droppable) {
+            this.droppable = droppable;
+        }
+    }
+
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final LongAdder dropped = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // Guarded by lock
+    private final ArrayDeque<Event> queue = new ArrayDeque<>();
+    private boolean draining = false;
+    private Thread drainThread = null;
+
+    /**
+     * @param executor The executor listeners are run on, events are handed to it one batch at a time
+     * @param capacity The maximum amount of queued events
+     * @param policy What to do with events arriving while the queue is full
+     */
+    public ListenerDispatcher(@Nonnull Executor executor, int capacity, @Nonnull OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Dispatcher capacity must be positive");
+        }
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    void dispatch(@Nonnull Kind kind, @Nonnull Runnable call) {
+        lock.lock();
+        try {
+            if (policy == OverflowPolicy.COALESCE && kind.droppable && dropOldest(kind)) {
+                // Replaced by the new event, which goes to the back of the queue like any other
+            } else if (queue.size() >= capacity) {
+                switch (policy) {
+                    case BLOCK -> {
+                        // The drain thread would wait for itself, so it queues past the capacity instead
+                        while (queue.size() >= capacity && Thread.currentThread() != drainThread) {
+                            notFull.awaitUninterruptibly();
+                        }
+                    }
+                    case DROP_OLDEST -> {
+                        if (!dropOldest(null) && !dropNew(kind)) {
+                            return;
+                        }
+                    }
+                    case COALESCE -> {
+                        if (!dropOldest(null) && !dropNew(kind)) {
+                            return;
+                        }
+                    }
+                }
+            }
+            queue.add(new Event(kind, call));
+            if (draining) {
+                return;
+            }
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("Listener executor rejected events, running them inline", e);
+            drain();
+        }
+    }
+
+    // Removes the oldest queued activity event, of the given kind unless null. Only called while holding lock
+    private boolean dropOldest(@Nullable Kind kind) {
+        for (var iterator = queue.iterator(); iterator.hasNext(); ) {
+            var event = iterator.next();
+            if (event.kind.droppable && (kind == null || event.kind == kind)) {
+                iterator.remove();
+                dropped.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Nothing queued may be dropped, returns whether the new event is queued anyway
+    private boolean dropNew(Kind kind) {
+        if (kind.droppable) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (true) {
+            Event event;
+            lock.lock();
+            try {
+                event = queue.poll();
+                if (event == null) {
+                    draining = false;
+                    drainThread = null;
+                    return;
+                }
+                drainThread = Thread.currentThread();
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                event.call.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Exception in event listener", e);
+            }
+        }
+    }
+
+    /**
+     * @return The amount of events waiting to be delivered
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return How many events were discarded because the queue was full, or coalesced into a newer one
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private record Event(Kind kind, Runnable call) {
+    }
+}
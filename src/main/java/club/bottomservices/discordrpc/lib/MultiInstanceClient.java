@@ -0,0 +1,331 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.DiscordException;
+import club.bottomservices.discordrpc.lib.exceptions.NoDiscordException;
+import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+import club.bottomservices.discordrpc.lib.pipe.IpcDiscovery;
+import club.bottomservices.discordrpc.lib.pipe.PipeEventLoop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a {@link DiscordRPCClient} connected to every live discord endpoint, for users running several discord clients such as stable and canary at once,
+ * and broadcasts presences to all of them.
+ * Each endpoint has its own client, so a failing or stalled instance does not affect the others: on unix their writes go through a shared
+ * {@link PipeEventLoop} which queues instead of blocking, on windows a stalled pipe still blocks the broadcast.
+ * Events of every instance are delivered one at a time through a single {@link ListenerDispatcher}, the client passed to the listener tells them apart.
+ * Endpoints which appear later are connected as soon as {@link IpcDiscovery} sees them, and get the last broadcast presence once ready
+ */
+public final class MultiInstanceClient implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiInstanceClient.class);
+    private static final Executor EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "DiscordRPC Multi Instance Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String appId;
+    private final EventListener listeners;
+    private final EventListener forwarder = new Forwarder();
+    private final ConcurrentHashMap<Path, DiscordRPCClient> clients = new ConcurrentHashMap<>();
+    private final FrameBuffer.Pool frames = new FrameBuffer.Pool(2, 1024);
+    private volatile ListenerDispatcher listenerDispatcher = new ListenerDispatcher(EXECUTOR, 256, ListenerDispatcher.OverflowPolicy.BLOCK);
+    private volatile Consumer<DiscordRPCClient> configurer = client -> {};
+    private volatile RichPresence lastPresence = null;
+    private volatile PresenceTemplate lastTemplate = null;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private PipeEventLoop eventLoop = null;
+    private Closeable watch = null;
+    private boolean closed = false;
+
+    /**
+     * @param listeners The event listeners receiving the events of every instance
+     * @param appId     Your discord application id
+     */
+    public MultiInstanceClient(@Nullable EventListener listeners, @Nonnull String appId) {
+        this.listeners = listeners;
+        this.appId = appId;
+    }
+
+    /**
+     * Sets the dispatcher events of every instance go through, by default events are run one at a time on a shared daemon thread pool
+     */
+    public void setListenerDispatcher(@Nonnull ListenerDispatcher listenerDispatcher) {
+        this.listenerDispatcher = listenerDispatcher;
+        for (var client : clients.values()) {
+            client.setListenerDispatcher(listenerDispatcher);
+        }
+    }
+
+    /**
+     * Sets a callback run on the client of each newly found endpoint before it connects, for example to install metrics or a {@link PresenceScheduler}
+     */
+    public void setConfigurer(@Nonnull Consumer<DiscordRPCClient> configurer) {
+        this.configurer = configurer;
+    }
+
+    /**
+     * Connects to every live endpoint and keeps watching for new ones
+     *
+     * @throws NoDiscordException If no endpoint could be connected to
+     */
+    public void connect() {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Tried to connect a closed client");
+            }
+            if (watch == null) {
+                // The socket file exists as soon as it is bound, give discord a moment to start listening on it
+                watch = IpcDiscovery.watch(() -> CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS, EXECUTOR).execute(this::refresh));
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (refresh() == 0) {
+            throw new NoDiscordException("Discord client not found");
+        }
+    }
+
+    /**
+     * Connects to endpoints which are not connected yet, called automatically whenever a new endpoint appears.
+     * Endpoints are connected in parallel so a stalled one does not delay the others.
+     * Needed on windows after a discord client started, named pipes cannot be watched there
+     *
+     * @return The amount of connected instances
+     */
+    public int refresh() {
+        var connecting = new ArrayList<CompletableFuture<Boolean>>();
+        int connected = 0;
+        lock.lock();
+        try {
+            if (closed) {
+                return 0;
+            }
+            if (eventLoop == null) {
+                eventLoop = new PipeEventLoop();
+            }
+            var endpoints = IpcDiscovery.endpoints();
+            // Forget stale endpoints which went away
+            clients.entrySet().removeIf(entry -> !endpoints.contains(entry.getKey()) && entry.getValue().getState() == ConnectionState.DISCONNECTED);
+            for (var endpoint : endpoints) {
+                var client = clients.computeIfAbsent(endpoint, this::newClient);
+                if (client.getState() == ConnectionState.DISCONNECTED) {
+                    connecting.add(CompletableFuture.supplyAsync(() -> connect(endpoint, client), EXECUTOR));
+                } else {
+                    connected++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (var attempt : connecting) {
+            if (attempt.join()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    // Outside of lock, connecting may take as long as discord takes to accept
+    private static boolean connect(Path endpoint, DiscordRPCClient client) {
+        try {
+            client.connect();
+            return true;
+        } catch (DiscordException | IllegalStateException e) {
+            LOGGER.debug("Discord endpoint {} is not reachable", endpoint, e);
+            // Connected by a concurrent refresh instead
+            return client.getState() != ConnectionState.DISCONNECTED;
+        }
+    }
+
+    // Guarded by lock
+    private DiscordRPCClient newClient(Path endpoint) {
+        var client = new DiscordRPCClient(forwarder, appId);
+        client.setIpcPath(endpoint);
+        client.setEventLoop(eventLoop);
+        client.setListenerDispatcher(listenerDispatcher);
+        configurer.accept(client);
+        return client;
+    }
+
+    /**
+     * Sends a presence to every connected instance, it is encoded once and the same bytes are written to each of them
+     *
+     * @see DiscordRPCClient#sendPresence(RichPresence)
+     */
+    public void sendPresence(@Nonnull RichPresence presence) {
+        lastPresence = presence;
+        lastTemplate = null;
+        byte[] activity;
+        var frame = frames.acquire();
+        try {
+            PresenceEncoder.encode(presence, frame);
+            activity = frame.copy(0);
+        } finally {
+            frames.release(frame);
+        }
+        for (var client : clients.values()) {
+            if (client.isConnected()) {
+                try {
+                    client.sendPresence(presence, activity);
+                } catch (NotConnectedException ignored) {
+                    // Lost meanwhile, it gets the presence again once it is back
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the current values of a template to every connected instance, slots are shared by all of them and only encoded when they change
+     *
+     * @see DiscordRPCClient#sendPresence(PresenceTemplate)
+     */
+    public void sendPresence(@Nonnull PresenceTemplate template) {
+        lastPresence = null;
+        lastTemplate = template;
+        for (var client : clients.values()) {
+            if (client.isConnected()) {
+                try {
+                    client.sendPresence(template);
+                } catch (NotConnectedException ignored) {
+                    // Lost meanwhile, it gets the presence again once it is back
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The client of every known endpoint, connected or not
+     */
+    @Nonnull
+    public Map<Path, DiscordRPCClient> getClients() {
+        return Map.copyOf(clients);
+    }
+
+    /**
+     * @return The amount of instances the connection is open to
+     */
+    public int getConnectedCount() {
+        int connected = 0;
+        for (var client : clients.values()) {
+            if (client.isConnected()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Stops watching for endpoints and disconnects every instance, in parallel so a stalled one does not delay the others
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (watch != null) {
+                try {
+                    watch.close();
+                } catch (IOException ignored) {
+                }
+                watch = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        CompletableFuture.allOf(clients.values().stream()
+                .map(client -> CompletableFuture.runAsync(client::close, EXECUTOR))
+                .toArray(CompletableFuture[]::new)).join();
+        clients.clear();
+
+        lock.lock();
+        try {
+            if (eventLoop != null) {
+                eventLoop.close();
+                eventLoop = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs on the dispatcher, so instances never call the listeners concurrently
+    private final class Forwarder implements EventListener {
+        @Override
+        public void onReady(@Nonnull DiscordRPCClient client, @Nonnull User user) {
+            var template = lastTemplate;
+            var presence = lastPresence;
+            try {
+                if (template != null) {
+                    client.sendPresence(template);
+                } else if (presence != null) {
+                    client.sendPresence(presence);
+                }
+            } catch (NotConnectedException ignored) {
+                // Lost again already, it gets the presence on its next READY
+            }
+            if (listeners != null) {
+                listeners.onReady(client, user);
+            }
+        }
+
+        @Override
+        public void onError(@Nonnull DiscordRPCClient client, @Nullable IOException exception, @Nullable ErrorEvent event) {
+            if (listeners != null) {
+                listeners.onError(client, exception, event);
+            }
+        }
+
+        @Override
+        public void onClose(@Nonnull DiscordRPCClient client) {
+            if (listeners != null) {
+                listeners.onClose(client);
+            }
+        }
+
+        @Override
+        public void onActivityJoin(@Nonnull DiscordRPCClient client, @Nonnull String secret) {
+            if (listeners != null) {
+                listeners.onActivityJoin(client, secret);
+            }
+        }
+
+        @Override
+        public void onActivitySpectate(@Nonnull DiscordRPCClient client, @Nonnull String secret) {
+            if (listeners != null) {
+                listeners.onActivitySpectate(client, secret);
+            }
+        }
+
+        @Override
+        public void onActivityJoinRequest(@Nonnull DiscordRPCClient client, @Nonnull User user) {
+            if (listeners != null) {
+                listeners.onActivityJoinRequest(client, user);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.CommandException;
+import club.bottomservices.discordrpc.lib.pipe.PacketView;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Table of commands awaiting a reply from discord, keyed by the nonce they were sent with.
+ * Nonces are a plain counter, discord only echoes them back
+ */
+final class PendingCommands {
+    private final AtomicLong nonces = new AtomicLong();
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private volatile ClientMetrics metrics = ClientMetrics.NONE;
+
+    void setMetrics(@Nonnull ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return A nonce which was never handed out by this table
+     */
+    long nextNonce() {
+        return nonces.incrementAndGet();
+    }
+
+    /**
+     * Starts tracking a command, the returned future fails with a {@link java.util.concurrent.TimeoutException}
+     * if no reply arrives in time, and its entry is removed however it completes
+     */
+    @Nonnull
+    CompletableFuture<CommandResponse> register(long nonce, @Nonnull Duration timeout) {
+        var future = new Pending();
+        pending.put(nonce, future);
+        future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .whenComplete((response, error) -> {
+                    pending.remove(nonce, future);
+                    if (error instanceof TimeoutException) {
+                        metrics.onCommandTimeout();
+                    }
+                    future.settleFollowers(response, error);
+                });
+        return future;
+    }
+
+    /**
+     * Completes the command a received packet replies to, if any.
+     * The packet's data is only parsed when a tracked command matches
+     */
+    void complete(@Nonnull PacketView packet) throws IOException {
+        long nonce = packet.nonce();
+        if (nonce == PacketView.NO_NONCE || pending.isEmpty()) {
+            return;
+        }
+        var future = pending.remove(nonce);
+        if (future == null) {
+            return;
+        }
+
+        long latency = System.nanoTime() - future.start;
+        boolean rejected = "ERROR".equals(packet.evt());
+        metrics.onCommandCompleted(latency, rejected);
+        if (rejected) {
+            future.completeExceptionally(new CommandException(EventDecoder.readError(packet.data())));
+        } else {
+            future.complete(new CommandResponse(packet.dataTree(), Duration.ofNanos(latency)));
+        }
+    }
+
+    /**
+     * Hands a command which was never written over to the one replacing it, its future completes with the replacement's reply.
+     * If the replacement is not tracked, the command completes right away without a reply, if it completed already the command completes the same way
+     */
+    void supersede(long nonce, long by) {
+        var future = pending.remove(nonce);
+        if (future == null) {
+            return;
+        }
+        var replacement = pending.get(by);
+        if (replacement == null) {
+            future.complete(new CommandResponse(null, Duration.ZERO));
+        } else {
+            replacement.adopt(future);
+        }
+    }
+
+    /**
+     * Waits until every command tracked right now completed, however it completes
+     * @return Whether all of them completed in time
+     */
+    boolean awaitAll(long timeoutNanos) {
+        var futures = pending.values().toArray(new CompletableFuture<?>[0]);
+        try {
+            CompletableFuture.allOf(futures).get(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException ignored) {
+            // Completed too, just not with a reply
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return How many commands are awaiting a reply
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * Fails a single command, used when writing it failed
+     */
+    void fail(long nonce, @Nonnull Throwable cause) {
+        var future = pending.remove(nonce);
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Fails every tracked command, used when the connection goes away
+     */
+    void failAll(@Nonnull Throwable cause) {
+        for (var nonce : pending.keySet()) {
+            fail(nonce, cause);
+        }
+    }
+
+    private static final class Pending extends SupersedingFuture {
+        private final long start = System.nanoTime();
+    }
+}
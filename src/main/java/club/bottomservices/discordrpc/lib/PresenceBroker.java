@@ -0,0 +1,660 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.CommandException;
+import club.bottomservices.discordrpc.lib.exceptions.NoDiscordException;
+import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import club.bottomservices.discordrpc.lib.pipe.FrameDecoder;
+import club.bottomservices.discordrpc.lib.pipe.IpcDiscovery;
+import club.bottomservices.discordrpc.lib.pipe.PacketView;
+import club.bottomservices.discordrpc.lib.pipe.PipeEventLoop;
+import club.bottomservices.discordrpc.lib.pipe.UnixPipe;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets the processes of one application on a machine share a single discord connection instead of fighting over the activity of their pids.
+ * The first process to join becomes the owner: it connects to discord and serves discord's own protocol on a unix socket next to discord's,
+ * which every joined client, the owner's included, connects to instead of discord.
+ * Presences are arbitrated by priority, the highest priority client with a presence is shown and the latest update wins ties,
+ * other commands are forwarded along with their replies, and discord's events go to every client.
+ * When the owner exits the remaining clients elect a new one between them, reconnect to it and send their presence again.
+ * Ownership is decided by a lock file the operating system releases however the owner exits.
+ * Not supported on windows
+ * @see PresenceBroker#join(DiscordRPCClient, int)
+ */
+public final class PresenceBroker implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceBroker.class);
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "DiscordRPC Broker Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(10);
+    private static final int ATTEMPTS = 20;
+    // A client which lets this much pile up is not reading and is dropped, so it cannot hold up the others
+    private static final int MAX_QUEUED_BYTES = 1 << 20;
+    // Discord's codes for an unknown error and for a malformed command
+    private static final int UNKNOWN_ERROR = 1000;
+    private static final int INVALID_PAYLOAD = 4000;
+
+    private final DiscordRPCClient client;
+    private final int priority;
+    private final Path endpoint;
+    private final Path lockFile;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private Server server = null;
+    private boolean closed = false;
+
+    private PresenceBroker(DiscordRPCClient client, int priority) {
+        this.client = client;
+        this.priority = priority;
+        this.endpoint = IpcDiscovery.runtimePath("discordrpc-broker-" + client.appId());
+        this.lockFile = IpcDiscovery.runtimePath("discordrpc-broker-" + client.appId() + ".lock");
+    }
+
+    /**
+     * Connects a client through the broker of its application id, becoming the owner if there is none.
+     * From then on the client is used as usual, with presences arbitrated against the other clients of the application
+     *
+     * @param client   A disconnected client, its ipc path is replaced by the broker's socket
+     * @param priority Presences of clients with a higher priority are shown over those of lower ones
+     * @return A handle which disconnects the client and hands ownership over when closed
+     * @throws NoDiscordException If neither a broker could be reached nor one started
+     */
+    @Nonnull
+    public static PresenceBroker join(@Nonnull DiscordRPCClient client, int priority) {
+        if (System.getProperty("os.name").toLowerCase().contains("win")) {
+            throw new UnsupportedOperationException("The presence broker is not supported on windows");
+        }
+        var broker = new PresenceBroker(client, priority);
+        client.setIpcPath(broker.endpoint);
+        client.broker = broker;
+        try {
+            broker.attach();
+        } catch (RuntimeException e) {
+            client.broker = null;
+            broker.close();
+            throw e;
+        }
+        return broker;
+    }
+
+    /**
+     * @return The priority this client's presences are arbitrated with
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return Whether this process currently owns the discord connection
+     */
+    public boolean isOwner() {
+        lock.lock();
+        try {
+            return server != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Becomes the owner if there is none, then connects to whichever broker won
+    private void attach() {
+        for (int attempt = 1; ; attempt++) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                if (server == null) {
+                    server = Server.start(endpoint, lockFile, client.appId());
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (client.getState() != ConnectionState.DISCONNECTED) {
+                return;
+            }
+            try {
+                client.connect();
+                return;
+            } catch (NoDiscordException | IllegalStateException e) {
+                // The owner may still be binding its socket
+                if (attempt == ATTEMPTS) {
+                    throw new NoDiscordException("No presence broker could be reached", e);
+                }
+            }
+            try {
+                Thread.sleep(25L * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NoDiscordException("Interrupted while joining the presence broker", e);
+            }
+        }
+    }
+
+    // Called by the client when the owner went away, the elected owner starts serving and everyone sends their presence again
+    void onConnectionLost() {
+        EXECUTOR.execute(() -> {
+            try {
+                // Spreads out the clients, the lock decides anyway
+                Thread.sleep(ThreadLocalRandom.current().nextLong(50));
+                attach();
+                client.whenReady().thenRun(client::replayPresence);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to rejoin the presence broker", e);
+            }
+        });
+    }
+
+    /**
+     * Disconnects the client, if this process is the owner the other clients elect a new one
+     */
+    @Override
+    public void close() {
+        Server server;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            server = this.server;
+            this.server = null;
+        } finally {
+            lock.unlock();
+        }
+        client.broker = null;
+        client.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * The owner's side, holding the discord connection and a session per joined client.
+     * Sessions and the discord connection are serviced by one event loop, so writing to a client or to discord never waits for it to read
+     */
+    private static final class Server implements EventListener {
+        private final Path endpoint;
+        private final FileChannel lockChannel;
+        private final FileLock fileLock;
+        private final ServerSocketChannel socket;
+        private final DiscordRPCClient upstream;
+        private final PipeEventLoop eventLoop = new PipeEventLoop();
+        private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<>();
+        private final AtomicLong updates = new AtomicLong();
+        private volatile JsonElement user = null;
+        private volatile boolean closed = false;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // Guarded by lock, the activity last sent over the current discord connection
+        private boolean shown = false;
+        private JsonElement shownActivity = null;
+        // Held by whichever thread is arbitrating, the others leave it a note to look again instead of waiting on discord's socket
+        private final AtomicBoolean arbitrating = new AtomicBoolean();
+        private volatile boolean rearbitrate = false;
+
+        private Server(Path endpoint, FileChannel lockChannel, FileLock fileLock, ServerSocketChannel socket, String appId) {
+            this.endpoint = endpoint;
+            this.lockChannel = lockChannel;
+            this.fileLock = fileLock;
+            this.socket = socket;
+            this.upstream = new DiscordRPCClient(this, appId);
+            // Commands from sessions are sent to discord on the loop, a blocking pipe to a slow discord would stall every session
+            upstream.setEventLoop(eventLoop);
+        }
+
+        /**
+         * @return The started server, or null if another process or broker owns the lock
+         */
+        @Nullable
+        static Server start(Path endpoint, Path lockFile, String appId) {
+            FileChannel channel = null;
+            ServerSocketChannel socket = null;
+            try {
+                channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock fileLock;
+                try {
+                    fileLock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    fileLock = null;
+                }
+                if (fileLock == null) {
+                    channel.close();
+                    return null;
+                }
+                // Left behind by an owner which did not exit cleanly
+                Files.deleteIfExists(endpoint);
+                socket = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                socket.bind(UnixDomainSocketAddress.of(endpoint));
+                var server = new Server(endpoint, channel, fileLock, socket, appId);
+                server.serve();
+                return server;
+            } catch (IOException e) {
+                closeQuietly(socket);
+                closeQuietly(channel);
+                throw new NoDiscordException("Failed to start the presence broker", e);
+            }
+        }
+
+        private void serve() {
+            EXECUTOR.execute(this::acceptLoop);
+            var supervisor = upstream.enableAutoReconnect();
+            try {
+                upstream.connect();
+            } catch (NoDiscordException e) {
+                // Clients are served meanwhile, they only get READY once discord is there
+                supervisor.onConnectionLost();
+            }
+        }
+
+        private void acceptLoop() {
+            while (socket.isOpen()) {
+                try {
+                    var session = new Session(new UnixPipe(socket.accept(), FrameDecoder.DEFAULT_MAX_FRAME_SIZE));
+                    sessions.add(session);
+                    eventLoop.register(session.pipe, session);
+                } catch (IOException e) {
+                    if (socket.isOpen()) {
+                        LOGGER.error("Presence broker stopped accepting clients", e);
+                    }
+                    return;
+                } catch (IllegalStateException e) {
+                    // Closed right after accepting, the session went with it
+                    return;
+                }
+            }
+        }
+
+        // Shows the presence of the highest priority client, sending it to discord only if it changed
+        private void arbitrate() {
+            rearbitrate = true;
+            while (rearbitrate && arbitrating.compareAndSet(false, true)) {
+                try {
+                    rearbitrate = false;
+                    arbitrateOnce();
+                } finally {
+                    arbitrating.set(false);
+                }
+            }
+        }
+
+        // Only called while holding arbitrating, so sends to discord cannot overtake each other
+        private void arbitrateOnce() {
+            // Replies sent once the lock is released
+            var answered = new ArrayList<Runnable>();
+            Session winner = null;
+            JsonObject message = null;
+            JsonElement nonce = null;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                for (var session : sessions) {
+                    if (session.activity != null && (winner == null || session.priority > winner.priority
+                            || session.priority == winner.priority && session.updated > winner.updated)) {
+                        winner = session;
+                    }
+                }
+                var activity = winner == null ? null : winner.activity;
+                // A new connection shows nothing until told otherwise
+                boolean changed = shown ? !Objects.equals(activity, shownActivity) : activity != null;
+                for (var session : sessions) {
+                    if (session.activityPending && !(changed && session == winner)) {
+                        // Not sent to discord, the client is told it was accepted as discord would have
+                        session.activityPending = false;
+                        var accepted = session.activity;
+                        var acceptedNonce = session.activityNonce;
+                        answered.add(() -> session.reply("SET_ACTIVITY", accepted == null ? JsonNull.INSTANCE : accepted, acceptedNonce));
+                    }
+                }
+                if (!changed) {
+                    winner = null;
+                } else {
+                    var args = new JsonObject();
+                    args.addProperty("pid", ProcessHandle.current().pid());
+                    if (activity != null) {
+                        args.add("activity", activity);
+                    }
+                    message = new JsonObject();
+                    message.addProperty("cmd", "SET_ACTIVITY");
+                    message.add("args", args);
+                    // Assumed shown before sending, so it is not sent twice if the lock is taken meanwhile
+                    shown = true;
+                    shownActivity = activity;
+                    if (winner != null && winner.activityPending) {
+                        winner.activityPending = false;
+                        nonce = winner.activityNonce;
+                    } else {
+                        winner = null;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (var reply : answered) {
+                reply.run();
+            }
+            if (message == null) {
+                return;
+            }
+            try {
+                var response = upstream.sendMessage(message, winner == null ? null : COMMAND_TIMEOUT);
+                if (winner != null) {
+                    // The client whose presence is shown gets discord's own answer
+                    winner.forward("SET_ACTIVITY", response, nonce);
+                }
+            } catch (NotConnectedException e) {
+                lock.lock();
+                try {
+                    // Sent once discord is ready
+                    shown = false;
+                } finally {
+                    lock.unlock();
+                }
+                if (winner != null) {
+                    var activity = message.getAsJsonObject("args").get("activity");
+                    winner.reply("SET_ACTIVITY", activity == null ? JsonNull.INSTANCE : activity, nonce);
+                }
+            }
+        }
+
+        @Override
+        public void onReady(@Nonnull DiscordRPCClient client, @Nonnull User user) {
+            lock.lock();
+            try {
+                shown = false;
+            } finally {
+                lock.unlock();
+            }
+            var json = DiscordRPCClient.GSON.toJsonTree(user);
+            this.user = json;
+            for (var session : sessions) {
+                if (session.handshaken) {
+                    session.sendReady(json);
+                }
+            }
+            arbitrate();
+        }
+
+        @Override
+        public void onActivityJoin(@Nonnull DiscordRPCClient client, @Nonnull String secret) {
+            var data = new JsonObject();
+            data.addProperty("secret", secret);
+            broadcast("ACTIVITY_JOIN", data);
+        }
+
+        @Override
+        public void onActivitySpectate(@Nonnull DiscordRPCClient client, @Nonnull String secret) {
+            var data = new JsonObject();
+            data.addProperty("secret", secret);
+            broadcast("ACTIVITY_SPECTATE", data);
+        }
+
+        @Override
+        public void onActivityJoinRequest(@Nonnull DiscordRPCClient client, @Nonnull User user) {
+            var data = new JsonObject();
+            data.add("user", DiscordRPCClient.GSON.toJsonTree(user));
+            broadcast("ACTIVITY_JOIN_REQUEST", data);
+        }
+
+        private void broadcast(String evt, JsonObject data) {
+            for (var session : sessions) {
+                if (session.ready) {
+                    session.send(dispatch(evt, data));
+                }
+            }
+        }
+
+        private static JsonObject dispatch(String evt, JsonElement data) {
+            var message = new JsonObject();
+            message.addProperty("cmd", "DISPATCH");
+            message.add("data", data);
+            message.addProperty("evt", evt);
+            message.add("nonce", JsonNull.INSTANCE);
+            return message;
+        }
+
+        void close() {
+            // Clients leaving now must not make discord flip through their presences
+            closed = true;
+            closeQuietly(socket);
+            for (var session : sessions) {
+                session.close();
+            }
+            // Before the loop it runs on, which would otherwise fail it and start a reconnect
+            upstream.disableAutoReconnect();
+            upstream.close();
+            eventLoop.close();
+            try {
+                // Before releasing the lock, so the next owner never deletes a live socket
+                Files.deleteIfExists(endpoint);
+                fileLock.release();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to clean up the presence broker", e);
+            }
+            closeQuietly(lockChannel);
+        }
+
+        private static void closeQuietly(@Nullable Closeable closeable) {
+            if (closeable == null) {
+                return;
+            }
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * A joined client, talking to the broker as if it was discord
+         */
+        private final class Session implements PipeEventLoop.Handler {
+            private final UnixPipe pipe;
+            private final AtomicBoolean closed = new AtomicBoolean();
+            private volatile int priority = 0;
+            private volatile boolean handshaken = false;
+            private volatile boolean ready = false;
+            // Written under Server.lock for consistent arbitration, null if this client shows nothing
+            private volatile JsonElement activity = null;
+            private volatile long updated;
+            // Guarded by Server.lock, whether the latest SET_ACTIVITY still waits for its reply and the nonce to reply with
+            private boolean activityPending = false;
+            private JsonElement activityNonce = null;
+
+            Session(UnixPipe pipe) {
+                this.pipe = pipe;
+            }
+
+            @Override
+            public void onPacket(@Nonnull PacketView packet) throws IOException {
+                switch (packet.opCode()) {
+                    case HANDSHAKE -> {
+                        var handshake = packet.toPacket().json();
+                        if (handshake.has("priority")) {
+                            priority = handshake.get("priority").getAsInt();
+                        }
+                        handshaken = true;
+                        // Otherwise sent by onReady, which may also run in between and send it first
+                        var user = Server.this.user;
+                        if (user != null) {
+                            sendReady(user);
+                        }
+                    }
+                    case MESSAGE -> command(packet.toPacket().json());
+                    case CLOSE -> close();
+                    // Answered here, a client's health monitor measures the broker and the broker's own monitors discord
+                    case PING -> send(DiscordPacket.OpCode.PONG, packet.toPacket().json());
+                }
+            }
+
+            @Override
+            public void onFailure(@Nonnull IOException exception) {
+                LOGGER.debug("Presence broker client went away", exception);
+                close();
+            }
+
+            private void command(JsonObject message) {
+                var nonce = message.remove("nonce");
+                var command = message.get("cmd");
+                if (command == null || !command.isJsonPrimitive() || !command.getAsJsonPrimitive().isString()) {
+                    replyError(null, INVALID_PAYLOAD, "Command has no cmd", nonce);
+                    return;
+                }
+                var cmd = command.getAsString();
+                if (cmd.equals("SET_ACTIVITY")) {
+                    var args = message.get("args");
+                    var activity = args != null && args.isJsonObject() ? args.getAsJsonObject().get("activity") : null;
+                    if (args != null && !args.isJsonObject() || activity != null && !activity.isJsonObject() && !activity.isJsonNull()) {
+                        replyError(cmd, INVALID_PAYLOAD, "Invalid activity", nonce);
+                        return;
+                    }
+                    boolean replaced;
+                    JsonElement replacedActivity;
+                    JsonElement replacedNonce;
+                    lock.lock();
+                    try {
+                        replaced = activityPending;
+                        replacedActivity = this.activity;
+                        replacedNonce = activityNonce;
+                        this.activity = activity == null || activity.isJsonNull() ? null : activity;
+                        this.updated = updates.incrementAndGet();
+                        activityPending = true;
+                        activityNonce = nonce;
+                    } finally {
+                        lock.unlock();
+                    }
+                    if (replaced) {
+                        // Overtaken by this client's own newer presence before it was sent
+                        reply(cmd, replacedActivity == null ? JsonNull.INSTANCE : replacedActivity, replacedNonce);
+                    }
+                    arbitrate();
+                    return;
+                }
+                try {
+                    forward(cmd, upstream.sendMessage(message, COMMAND_TIMEOUT), nonce);
+                } catch (NotConnectedException e) {
+                    replyError(cmd, e, nonce);
+                }
+            }
+
+            // Answers with discord's reply to the forwarded command
+            void forward(String cmd, CompletableFuture<CommandResponse> response, JsonElement nonce) {
+                response.whenComplete((result, error) -> {
+                    if (error == null) {
+                        reply(cmd, result.data() == null ? JsonNull.INSTANCE : result.data(), nonce);
+                    } else {
+                        replyError(cmd, error instanceof CompletionException ? error.getCause() : error, nonce);
+                    }
+                });
+            }
+
+            void reply(String cmd, JsonElement data, JsonElement nonce) {
+                var message = new JsonObject();
+                message.addProperty("cmd", cmd);
+                message.add("data", data);
+                message.add("evt", JsonNull.INSTANCE);
+                message.add("nonce", nonce);
+                send(message);
+            }
+
+            private void replyError(String cmd, Throwable error, JsonElement nonce) {
+                if (error instanceof CommandException rejected) {
+                    replyError(cmd, rejected.getError().code, rejected.getError().message, nonce);
+                } else {
+                    replyError(cmd, UNKNOWN_ERROR, String.valueOf(error.getMessage()), nonce);
+                }
+            }
+
+            private void replyError(@Nullable String cmd, int code, String reason, JsonElement nonce) {
+                var data = new JsonObject();
+                data.addProperty("code", code);
+                data.addProperty("message", reason);
+                var message = new JsonObject();
+                message.addProperty("cmd", cmd);
+                message.add("data", data);
+                message.addProperty("evt", "ERROR");
+                message.add("nonce", nonce);
+                send(message);
+            }
+
+            synchronized void sendReady(JsonElement user) {
+                if (ready) {
+                    return;
+                }
+                var data = new JsonObject();
+                data.addProperty("v", 1);
+                data.add("user", user);
+                send(dispatch("READY", data));
+                ready = true;
+            }
+
+            void send(JsonObject message) {
+                send(DiscordPacket.OpCode.MESSAGE, message);
+            }
+
+            // Only called after the handshake was read, so the pipe is registered and writing never blocks.
+            // Replies, events and READY come from different threads, the write queue keeps their packets whole
+            void send(DiscordPacket.OpCode opCode, JsonObject message) {
+                try {
+                    pipe.write(new DiscordPacket(opCode, message).toBytes());
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to write to presence broker client", e);
+                    close();
+                    return;
+                }
+                if (pipe.getQueuedBytes() > MAX_QUEUED_BYTES) {
+                    LOGGER.warn("Dropped a presence broker client which stopped reading");
+                    close();
+                }
+            }
+
+            void close() {
+                if (!closed.compareAndSet(false, true)) {
+                    return;
+                }
+                closeQuietly(pipe);
+                sessions.remove(this);
+                if (activity != null) {
+                    arbitrate();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Remembers the last presence written to discord along with the encodings of its parts,
+ * so that repeated presences are suppressed and unchanged parts of a presence are not encoded again
+ */
+final class PresenceCache {
+    private final Part<RichPresence.Timestamps> timestamps = new Part<>(UnaryOperator.identity());
+    private final Part<RichPresence.Assets> assets = new Part<>(UnaryOperator.identity());
+    private final Part<RichPresence.Party> party = new Part<>(PresenceCache::snapshot);
+    private final Part<RichPresence.Secrets> secrets = new Part<>(UnaryOperator.identity());
+    private final Part<List<RichPresence.Button>> buttons = new Part<>(List::copyOf);
+
+    private RichPresence last = null;
+    // A copy of the party of last, its size array belongs to the caller who may change it in place after sending
+    private RichPresence.Party lastParty = null;
+    // A copy of the buttons of last for the same reason, the list belongs to the caller
+    private List<RichPresence.Button> lastButtons = null;
+    private PresenceTemplate lastTemplate = null;
+    private long lastVersion;
+
+    /**
+     * Encodes the activity json of a presence through {@link PresenceEncoder} and records it as the last sent one
+     * @return False if nothing was written because the presence is structurally equal to the last one
+     */
+    synchronized boolean encode(@Nonnull RichPresence presence, @Nonnull FrameBuffer out) {
+        if (isLast(presence)) {
+            return false;
+        }
+
+        out.put('{');
+        boolean first = true;
+        if (presence.state() != null) {
+            first = false;
+            out.put(PresenceEncoder.STATE).putString(presence.state());
+        }
+        if (presence.details() != null) {
+            first = PresenceEncoder.separator(out, first);
+            out.put(PresenceEncoder.DETAILS).putString(presence.details());
+        }
+        first = timestamps.encode(out, first, PresenceEncoder.TIMESTAMPS, presence.timestamps(), Objects::equals, PresenceEncoder::timestamps);
+        first = assets.encode(out, first, PresenceEncoder.ASSETS, presence.assets(), Objects::equals, PresenceEncoder::assets);
+        first = party.encode(out, first, PresenceEncoder.PARTY, presence.party(), PresenceCache::sameParty, PresenceEncoder::party);
+        first = secrets.encode(out, first, PresenceEncoder.SECRETS, presence.secrets(), Objects::equals, PresenceEncoder::secrets);
+        buttons.encode(out, first, PresenceEncoder.BUTTONS, presence.buttons(), Objects::equals, PresenceEncoder::buttons);
+        out.put('}');
+
+        remember(presence);
+        return true;
+    }
+
+    /**
+     * Same as {@link PresenceCache#encode(RichPresence, FrameBuffer)} with the activity json already encoded, for presences sent over several connections
+     */
+    synchronized boolean encode(@Nonnull RichPresence presence, @Nonnull byte[] activity, @Nonnull FrameBuffer out) {
+        if (isLast(presence)) {
+            return false;
+        }
+        out.put(activity);
+        remember(presence);
+        return true;
+    }
+
+    /**
+     * Writes the activity json of a template and records it as the last sent presence
+     * @return False if nothing was written because the template did not change since it was last sent
+     */
+    synchronized boolean encode(@Nonnull PresenceTemplate template, @Nonnull FrameBuffer out) {
+        if (lastTemplate == template && lastVersion == template.version()) {
+            return false;
+        }
+        lastVersion = template.encode(out);
+        lastTemplate = template;
+        last = null;
+        return true;
+    }
+
+    /**
+     * Forgets the last sent presence, used when a write failed or the connection changed
+     */
+    synchronized void invalidate() {
+        last = null;
+        lastTemplate = null;
+    }
+
+    /**
+     * Structural equality with the last sent presence, unlike {@link RichPresence#equals(Object)} this compares {@link RichPresence.Party#size()} by content
+     * and against copies of the parts the caller may change in place
+     */
+    private boolean isLast(RichPresence presence) {
+        return last != null
+                && Objects.equals(last.state(), presence.state())
+                && Objects.equals(last.details(), presence.details())
+                && Objects.equals(last.timestamps(), presence.timestamps())
+                && Objects.equals(last.assets(), presence.assets())
+                && sameParty(lastParty, presence.party())
+                && Objects.equals(last.secrets(), presence.secrets())
+                && Objects.equals(lastButtons, presence.buttons());
+    }
+
+    // Copies the party and buttons only when they changed, so sending the same ones again allocates nothing
+    private void remember(RichPresence presence) {
+        if (!sameParty(lastParty, presence.party())) {
+            lastParty = snapshot(presence.party());
+        }
+        if (!Objects.equals(lastButtons, presence.buttons())) {
+            lastButtons = presence.buttons() == null ? null : List.copyOf(presence.buttons());
+        }
+        last = presence;
+        lastTemplate = null;
+    }
+
+    private static boolean sameParty(RichPresence.Party a, RichPresence.Party b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.id().equals(b.id()) && Arrays.equals(a.size(), b.size());
+    }
+
+    private static RichPresence.Party snapshot(RichPresence.Party party) {
+        if (party == null || party.size() == null) {
+            return party;
+        }
+        return new RichPresence.Party(party.id(), party.size().clone());
+    }
+
+    // The last value of a nested record along with its encoding, kept in an array which is reused when the value changes
+    private static final class Part<T> {
+        // Copies the parts of a value the caller may still change
+        private final UnaryOperator<T> snapshot;
+        private T value = null;
+        private byte[] encoded = null;
+        private int length = 0;
+
+        Part(UnaryOperator<T> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Writes the value as a member, copying the last encoding if the value did not change
+         * @return Whether no member has been written yet
+         */
+        boolean encode(FrameBuffer out, boolean first, byte[] key, T value, BiPredicate<T, T> equality, BiConsumer<T, FrameBuffer> encoder) {
+            if (value == null) {
+                return first;
+            }
+            PresenceEncoder.separator(out, first);
+            out.put(key);
+            if (this.value != null && equality.test(this.value, value)) {
+                out.put(encoded, length);
+            } else {
+                int mark = out.size();
+                encoder.accept(value, out);
+                this.encoded = out.copy(mark, encoded);
+                this.length = out.size() - mark;
+                this.value = snapshot.apply(value);
+            }
+            return false;
+        }
+    }
+}
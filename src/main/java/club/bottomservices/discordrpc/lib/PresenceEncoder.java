@@ -0,0 +1,161 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes {@link RichPresence} and its parts as json without going through Gson.
+ * The output is byte for byte what {@code DiscordRPCClient.GSON.toJsonTree(value).toString()} produces, which is what was sent before:
+ * members in component order, {@link com.google.gson.annotations.SerializedName} keys, null members left out and html characters not escaped
+ */
+final class PresenceEncoder {
+    static final byte[] STATE = key("state");
+    static final byte[] DETAILS = key("details");
+    static final byte[] TIMESTAMPS = key("timestamps");
+    static final byte[] ASSETS = key("assets");
+    static final byte[] PARTY = key("party");
+    static final byte[] SECRETS = key("secrets");
+    static final byte[] BUTTONS = key("buttons");
+
+    private static final byte[] START = key("start");
+    private static final byte[] END = key("end");
+    private static final byte[] LARGE_IMAGE = key("large_image");
+    private static final byte[] LARGE_TEXT = key("large_text");
+    private static final byte[] SMALL_IMAGE = key("small_image");
+    private static final byte[] SMALL_TEXT = key("small_text");
+    private static final byte[] ID = key("id");
+    private static final byte[] SIZE = key("size");
+    private static final byte[] JOIN = key("join");
+    private static final byte[] SPECTATE = key("spectate");
+    private static final byte[] MATCH = key("match");
+    private static final byte[] LABEL = key("label");
+    private static final byte[] URL = key("url");
+
+    private PresenceEncoder() {
+    }
+
+    private static byte[] key(String name) {
+        return ('"' + name + "\":").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes a whole presence
+     */
+    static void encode(@Nonnull RichPresence presence, @Nonnull FrameBuffer out) {
+        out.put('{');
+        boolean first = string(out, true, STATE, presence.state());
+        first = string(out, first, DETAILS, presence.details());
+        if (presence.timestamps() != null) {
+            first = separator(out, first);
+            timestamps(presence.timestamps(), out.put(TIMESTAMPS));
+        }
+        if (presence.assets() != null) {
+            first = separator(out, first);
+            assets(presence.assets(), out.put(ASSETS));
+        }
+        if (presence.party() != null) {
+            first = separator(out, first);
+            party(presence.party(), out.put(PARTY));
+        }
+        if (presence.secrets() != null) {
+            first = separator(out, first);
+            secrets(presence.secrets(), out.put(SECRETS));
+        }
+        if (presence.buttons() != null) {
+            separator(out, first);
+            buttons(presence.buttons(), out.put(BUTTONS));
+        }
+        out.put('}');
+    }
+
+    static void timestamps(@Nonnull RichPresence.Timestamps timestamps, @Nonnull FrameBuffer out) {
+        out.put('{');
+        boolean first = number(out, true, START, timestamps.start());
+        number(out, first, END, timestamps.end());
+        out.put('}');
+    }
+
+    static void assets(@Nonnull RichPresence.Assets assets, @Nonnull FrameBuffer out) {
+        out.put('{');
+        boolean first = string(out, true, LARGE_IMAGE, assets.largeImage());
+        first = string(out, first, LARGE_TEXT, assets.largeText());
+        first = string(out, first, SMALL_IMAGE, assets.smallImage());
+        string(out, first, SMALL_TEXT, assets.smallText());
+        out.put('}');
+    }
+
+    static void party(@Nonnull RichPresence.Party party, @Nonnull FrameBuffer out) {
+        out.put('{');
+        boolean first = string(out, true, ID, party.id());
+        int[] size = party.size();
+        if (size != null) {
+            separator(out, first);
+            out.put(SIZE).put('[');
+            for (int i = 0; i < size.length; i++) {
+                if (i != 0) {
+                    out.put(',');
+                }
+                out.putLong(size[i]);
+            }
+            out.put(']');
+        }
+        out.put('}');
+    }
+
+    static void secrets(@Nonnull RichPresence.Secrets secrets, @Nonnull FrameBuffer out) {
+        out.put('{');
+        boolean first = string(out, true, JOIN, secrets.join());
+        first = string(out, first, SPECTATE, secrets.spectate());
+        string(out, first, MATCH, secrets.match());
+        out.put('}');
+    }
+
+    static void buttons(@Nonnull List<RichPresence.Button> buttons, @Nonnull FrameBuffer out) {
+        out.put('[');
+        for (int i = 0; i < buttons.size(); i++) {
+            if (i != 0) {
+                out.put(',');
+            }
+            var button = buttons.get(i);
+            // Gson writes null elements of a list, unlike null members
+            if (button == null) {
+                out.putAscii("null");
+                continue;
+            }
+            out.put('{');
+            boolean first = string(out, true, LABEL, button.label());
+            string(out, first, URL, button.url());
+            out.put('}');
+        }
+        out.put(']');
+    }
+
+    static boolean separator(FrameBuffer out, boolean first) {
+        if (!first) {
+            out.put(',');
+        }
+        return false;
+    }
+
+    private static boolean string(FrameBuffer out, boolean first, byte[] key, @Nullable String value) {
+        if (value == null) {
+            return first;
+        }
+        separator(out, first);
+        out.put(key).putString(value);
+        return false;
+    }
+
+    private static boolean number(FrameBuffer out, boolean first, byte[] key, @Nullable Long value) {
+        if (value == null) {
+            return first;
+        }
+        separator(out, first);
+        out.put(key).putLong(value);
+        return false;
+    }
+}
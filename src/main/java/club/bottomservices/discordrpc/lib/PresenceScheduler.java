@@ -0,0 +1,213 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.DiscordException;
+import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Rate limiter for presence updates, discord only accepts a handful of SET_ACTIVITY commands per window and silently drops the rest.
+ * Submitted presences are kept in a latest-wins slot which is released through a token bucket,
+ * so a burst collapses into a single write and the last submitted presence is always sent eventually.
+ * @see DiscordRPCClient#schedulePresence(int, Duration)
+ */
+public final class PresenceScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceScheduler.class);
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "DiscordRPC Presence Scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Given a null timeout the reply is not tracked and the sink returns null
+    private final BiFunction<RichPresence, Duration, CompletableFuture<CommandResponse>> sink;
+    private final int capacity;
+    private final long refillNanos;
+    private final AtomicReference<Entry> pending = new AtomicReference<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+
+    // A lock rather than synchronized, a virtual thread blocking in a write while holding it must not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private int tokens;
+    private long lastRefill;
+    private ScheduledFuture<?> flush = null;
+
+    PresenceScheduler(@Nonnull BiFunction<RichPresence, Duration, CompletableFuture<CommandResponse>> sink, int updates, @Nonnull Duration window) {
+        if (updates < 1 || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("PresenceScheduler needs at least one update per positive window");
+        }
+        this.sink = sink;
+        this.capacity = updates;
+        this.refillNanos = window.toNanos() / updates;
+        this.tokens = updates;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Replaces the pending presence and writes it right away if the rate limit allows it
+     * @param timeout How long to wait for discord's reply, counted from now so it includes time spent held back by the rate limit
+     * @return A future completed with the reply to this presence, or to the newer presence that replaced it
+     */
+    @Nonnull
+    CompletableFuture<CommandResponse> submit(@Nonnull RichPresence presence, @Nonnull Duration timeout) {
+        var entry = new Entry(presence, timeout, new SupersedingFuture());
+        entry.future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .whenComplete(entry.future::settleFollowers);
+        var previous = pending.getAndSet(entry);
+        if (previous != null) {
+            coalesced.increment();
+            if (previous.future != null) {
+                entry.future.adopt(previous.future);
+            }
+        }
+        drain(false);
+        return entry.future;
+    }
+
+    /**
+     * Replaces the pending presence without tracking discord's reply, so a presence sent every tick allocates no future or timer
+     */
+    void submit(@Nonnull RichPresence presence) {
+        var entry = new Entry(presence, null, null);
+        Entry previous;
+        do {
+            previous = pending.get();
+            if (previous != null && previous.future != null) {
+                // Whoever waits on the replaced presence gets the reply to this one, so it is tracked after all
+                submit(presence, previous.timeout);
+                return;
+            }
+        } while (!pending.compareAndSet(previous, entry));
+        if (previous != null) {
+            coalesced.increment();
+        }
+        drain(false);
+    }
+
+    private static void forward(CompletableFuture<CommandResponse> from, CompletableFuture<CommandResponse> to) {
+        from.whenComplete((response, error) -> {
+            if (error != null) {
+                to.completeExceptionally(error);
+            } else {
+                to.complete(response);
+            }
+        });
+    }
+
+    /**
+     * Drops the pending presence, used when the connection goes away
+     */
+    void cancel() {
+        var entry = pending.getAndSet(null);
+        if (entry != null && entry.future != null) {
+            entry.future.completeExceptionally(new NotConnectedException("Scheduled presence was dropped"));
+        }
+        lock.lock();
+        try {
+            if (flush != null) {
+                flush.cancel(false);
+                flush = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending presence right away regardless of the rate limit, used before disconnecting so it is not lost
+     */
+    void flushNow() {
+        drain(true);
+    }
+
+    // Writing happens under the lock so an older presence can never overtake a newer one
+    private void drain(boolean force) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (tokens < capacity) {
+                long refilled = (now - lastRefill) / refillNanos;
+                if (refilled > 0) {
+                    tokens = (int) Math.min(capacity, tokens + refilled);
+                    lastRefill = tokens == capacity ? now : lastRefill + refilled * refillNanos;
+                }
+            } else {
+                lastRefill = now;
+            }
+
+            if (pending.get() == null) {
+                return;
+            }
+            if (tokens > 0 || force) {
+                var entry = pending.getAndSet(null);
+                if (entry != null) {
+                    CompletableFuture<CommandResponse> written;
+                    try {
+                        written = sink.apply(entry.presence, entry.timeout);
+                    } catch (DiscordException e) {
+                        if (entry.future != null) {
+                            entry.future.completeExceptionally(e);
+                        }
+                        throw e;
+                    }
+                    if (entry.future != null) {
+                        forward(written, entry.future);
+                    }
+                    tokens = Math.max(0, tokens - 1);
+                    sent.increment();
+                }
+            } else if (flush == null) {
+                flush = TIMER.schedule(this::flush, refillNanos - (now - lastRefill), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush() {
+        lock.lock();
+        try {
+            flush = null;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            drain(false);
+        } catch (DiscordException e) {
+            LOGGER.debug("Dropped scheduled presence update", e);
+        }
+    }
+
+    // Timeout and future are null for a presence nobody waits on
+    private record Entry(RichPresence presence, @Nullable Duration timeout, @Nullable SupersedingFuture future) {
+    }
+
+    /**
+     * @return How many submitted presences were replaced by a newer one before being written
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return How many presences were actually written to discord
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+}
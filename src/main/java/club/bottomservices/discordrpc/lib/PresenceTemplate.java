@@ -0,0 +1,137 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * A presence whose assets, party, secrets and buttons are encoded once, for updates which only change the text and timestamps.
+ * Each slot keeps its own escaped encoding which is only redone when the slot changes,
+ * so sending through {@link DiscordRPCClient#sendPresence(PresenceTemplate)} copies bytes instead of encoding the whole presence.
+ * Thread safe, a change made while a send is in progress goes out with the next send
+ */
+public final class PresenceTemplate {
+    private final RichPresence base;
+    // The static members, separated by commas and without enclosing braces
+    private final byte[] tail;
+    private final FrameBuffer scratch = new FrameBuffer(256);
+
+    // Guarded by this
+    private String state;
+    private String details;
+    private RichPresence.Timestamps timestamps;
+    private byte[] stateSlot;
+    private byte[] detailsSlot;
+    private byte[] timestampsSlot;
+    private long version = 0;
+
+    /**
+     * @param base The presence to take the static parts and the initial slot values from
+     */
+    public PresenceTemplate(@Nonnull RichPresence base) {
+        this.base = base;
+        var fixed = new RichPresence(null, null, null, base.assets(), base.party(), base.secrets(), base.buttons());
+        PresenceEncoder.encode(fixed, scratch.clear());
+        // Without the braces
+        this.tail = scratch.truncate(scratch.size() - 1).copy(1);
+        setState(base.state());
+        setDetails(base.details());
+        setTimestamps(base.timestamps());
+    }
+
+    public synchronized PresenceTemplate setState(@Nullable String state) {
+        if (!Objects.equals(this.state, state)) {
+            this.state = state;
+            this.stateSlot = state == null ? null : encode(PresenceEncoder.STATE).putString(state).copy(0);
+            version++;
+        }
+        return this;
+    }
+
+    public synchronized PresenceTemplate setDetails(@Nullable String details) {
+        if (!Objects.equals(this.details, details)) {
+            this.details = details;
+            this.detailsSlot = details == null ? null : encode(PresenceEncoder.DETAILS).putString(details).copy(0);
+            version++;
+        }
+        return this;
+    }
+
+    public synchronized PresenceTemplate setText(@Nullable String details, @Nullable String state) {
+        return setDetails(details).setState(state);
+    }
+
+    /**
+     * Unix timestamps (such as from {@link System#currentTimeMillis()} divided by 1000)
+     * @return This template
+     */
+    public synchronized PresenceTemplate setTimestamps(@Nullable Long start, @Nullable Long end) {
+        // Called every tick with the same values, which must not allocate
+        if (timestamps != null && Objects.equals(timestamps.start(), start) && Objects.equals(timestamps.end(), end)) {
+            return this;
+        }
+        return setTimestamps(new RichPresence.Timestamps(start, end));
+    }
+
+    private PresenceTemplate setTimestamps(@Nullable RichPresence.Timestamps timestamps) {
+        if (!Objects.equals(this.timestamps, timestamps)) {
+            this.timestamps = timestamps;
+            if (timestamps == null) {
+                this.timestampsSlot = null;
+            } else {
+                var out = encode(PresenceEncoder.TIMESTAMPS);
+                PresenceEncoder.timestamps(timestamps, out);
+                this.timestampsSlot = out.copy(0);
+            }
+            version++;
+        }
+        return this;
+    }
+
+    private FrameBuffer encode(byte[] key) {
+        return scratch.clear().put(key);
+    }
+
+    /**
+     * @return The presence this template currently sends
+     */
+    @Nonnull
+    public synchronized RichPresence toPresence() {
+        return new RichPresence(state, details, timestamps, base.assets(), base.party(), base.secrets(), base.buttons());
+    }
+
+    /**
+     * @return A number which changes whenever a slot does
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Writes the activity json, byte for byte what {@link PresenceEncoder} writes for {@link PresenceTemplate#toPresence()}
+     * @return The version which was written
+     */
+    synchronized long encode(@Nonnull FrameBuffer out) {
+        out.put('{');
+        boolean first = slot(out, true, stateSlot);
+        first = slot(out, first, detailsSlot);
+        first = slot(out, first, timestampsSlot);
+        if (tail.length > 0) {
+            PresenceEncoder.separator(out, first);
+            out.put(tail);
+        }
+        out.put('}');
+        return version;
+    }
+
+    private static boolean slot(FrameBuffer out, boolean first, byte[] slot) {
+        if (slot == null) {
+            return first;
+        }
+        PresenceEncoder.separator(out, first);
+        out.put(slot);
+        return false;
+    }
+}
@@ -0,0 +1,264 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.DiscordException;
+import club.bottomservices.discordrpc.lib.pipe.IpcDiscovery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reopens the connection of a client whenever it is lost without {@link DiscordRPCClient#disconnect()} being called, for example because discord restarted.
+ * Attempts are spaced with exponential backoff and jitter, cut short as soon as {@link IpcDiscovery} sees a discord socket appear,
+ * and the last sent presence is sent again once discord is ready
+ * @see DiscordRPCClient#enableAutoReconnect(Duration, Duration)
+ */
+public final class ReconnectSupervisor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReconnectSupervisor.class);
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "DiscordRPC Reconnect Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DiscordRPCClient client;
+    private final long initialDelay;
+    private final long maxDelay;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private boolean stopped = false;
+    private boolean down = false;
+    private long downSince;
+    private int attempt;
+    private ScheduledFuture<?> next = null;
+    private boolean attempting = false;
+    private Closeable watch = null;
+    private long reconnects = 0;
+    private long failedAttempts = 0;
+    private long lastDowntime = 0;
+    private long totalDowntime = 0;
+
+    ReconnectSupervisor(@Nonnull DiscordRPCClient client, @Nonnull Duration initialDelay, @Nonnull Duration maxDelay) {
+        if (initialDelay.isNegative() || initialDelay.isZero() || maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("Reconnect delays must be positive, with the maximum at least the initial delay");
+        }
+        this.client = client;
+        this.initialDelay = initialDelay.toNanos();
+        this.maxDelay = maxDelay.toNanos();
+    }
+
+    /**
+     * Called when the connection went away unexpectedly, schedules the next attempt unless one is already pending
+     */
+    void onConnectionLost() {
+        lock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+            if (!down) {
+                down = true;
+                downSince = System.nanoTime();
+                attempt = 0;
+                watch = IpcDiscovery.watch(this::endpointAppeared);
+            }
+            if (next == null && !attempting) {
+                // Equal jitter, so clients disconnected by the same restart do not all come back at once
+                long delay = Math.min(maxDelay, initialDelay << Math.min(attempt, 30));
+                delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+                attempt++;
+                next = TIMER.schedule(this::attempt, delay, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Discord is starting, skip whatever is left of the backoff
+    private void endpointAppeared() {
+        lock.lock();
+        try {
+            if (stopped || !down) {
+                return;
+            }
+            attempt = 0;
+            if (next != null) {
+                next.cancel(false);
+                next = null;
+            }
+            if (!attempting) {
+                // The socket file exists as soon as it is bound, give discord a moment to start listening on it
+                next = TIMER.schedule(this::attempt, 100, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void attempt() {
+        lock.lock();
+        try {
+            next = null;
+            if (stopped || client.isConnected()) {
+                return;
+            }
+            attempting = true;
+        } finally {
+            lock.unlock();
+        }
+
+        boolean failed = false;
+        try {
+            client.reconnect();
+        } catch (DiscordException e) {
+            LOGGER.debug("Reconnect attempt failed", e);
+            failed = true;
+        } finally {
+            lock.lock();
+            try {
+                attempting = false;
+                if (failed) {
+                    failedAttempts++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        // A handshake failure reports the loss from within reconnect, before attempting was cleared
+        if (failed || !client.isConnected()) {
+            onConnectionLost();
+        }
+    }
+
+    /**
+     * Called when discord sent READY
+     * @return Whether this ends an outage, meaning the last presence should be sent again
+     */
+    boolean onReady() {
+        lock.lock();
+        try {
+            if (!down) {
+                return false;
+            }
+            down = false;
+            unwatch();
+            lastDowntime = System.nanoTime() - downSince;
+            totalDowntime += lastDowntime;
+            reconnects++;
+        } finally {
+            lock.unlock();
+        }
+        LOGGER.info("Reconnected to discord after {} ms", TimeUnit.NANOSECONDS.toMillis(lastDowntime));
+        return true;
+    }
+
+    /**
+     * Cancels the pending attempt, the outage in progress is not counted
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            down = false;
+            unwatch();
+            if (next != null) {
+                next.cancel(false);
+                next = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Guarded by lock
+    private void unwatch() {
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (IOException ignored) {
+            }
+            watch = null;
+        }
+    }
+
+    void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+        } finally {
+            lock.unlock();
+        }
+        cancel();
+    }
+
+    /**
+     * @return Whether the connection is currently lost and being retried
+     */
+    public boolean isReconnecting() {
+        lock.lock();
+        try {
+            return down;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return How many times the connection was lost and successfully reopened
+     */
+    public long getReconnectCount() {
+        lock.lock();
+        try {
+            return reconnects;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return How many attempts failed because discord could not be reached
+     */
+    public long getFailedAttemptCount() {
+        lock.lock();
+        try {
+            return failedAttempts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return How long the last completed outage lasted, from losing the connection to discord being ready again
+     */
+    @Nonnull
+    public Duration getLastDowntime() {
+        lock.lock();
+        try {
+            return Duration.ofNanos(lastDowntime);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The summed length of all completed outages
+     */
+    @Nonnull
+    public Duration getTotalDowntime() {
+        lock.lock();
+        try {
+            return Duration.ofNanos(totalDowntime);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
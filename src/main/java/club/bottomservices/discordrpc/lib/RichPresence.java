@@ -5,7 +5,9 @@ import com.google.gson.annotations.SerializedName;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 
 public record RichPresence(@Nullable String state,
                            @Nullable String details,
@@ -14,6 +16,8 @@ public record RichPresence(@Nullable String state,
                            @Nullable Party party,
                            @Nullable Secrets secrets,
                            @Nullable List<Button> buttons) {
+    // What builders produce for unset timestamps
+    private static final Timestamps NO_TIMESTAMPS = new Timestamps(null, null);
 
     public record Button(@Nonnull String label, @Nonnull String url) {
     }
@@ -25,6 +29,10 @@ public record RichPresence(@Nullable String state,
                          @Nullable @SerializedName("large_text") String largeText,
                          @Nullable @SerializedName("small_image") String smallImage,
                          @Nullable @SerializedName("small_text") String smallText) {
+        private boolean equals(String largeImage, String largeText, String smallImage, String smallText) {
+            return Objects.equals(this.largeImage, largeImage) && Objects.equals(this.largeText, largeText)
+                    && Objects.equals(this.smallImage, smallImage) && Objects.equals(this.smallText, smallText);
+        }
     }
 
     public record Party(@Nonnull String id, int[] size) {
@@ -128,14 +136,9 @@ public record RichPresence(@Nullable String state,
          * @return The built {@link RichPresence}
          */
         public RichPresence build() {
-            var timestamps = new Timestamps(start, end);
+            var timestamps = start == null && end == null ? NO_TIMESTAMPS : new Timestamps(start, end);
             Assets assets = null;
-            // Bad code, fix later
-            if ((largeImage != null && largeText != null) || (smallImage != null && smallText != null)) {
-                if ((largeImage != null && (largeImage.isEmpty() || largeText.isEmpty())) // If largeImage isn't null, so isn't largeText
-                        || (smallImage != null && (smallImage.isEmpty() || smallText.isEmpty()))) {
-                    throw new IllegalArgumentException("RichPresence must not be built with empty image strings");
-                }
+            if (hasAssets(largeImage, largeText, smallImage, smallText)) {
                 assets = new Assets(largeImage, largeText, smallImage, smallText);
             }
 
@@ -149,14 +152,210 @@ public record RichPresence(@Nullable String state,
                 secrets = new Secrets(join, spectate, match);
             }
 
-            List<Button> buttons = new ArrayList<>();
-            if (this.buttons != null) {
+            List<Button> buttons = null;
+            if (this.buttons != null && !this.buttons.isEmpty()) {
+                buttons = new ArrayList<>(this.buttons.size());
                 for (int i = 0; i < this.buttons.size(); i++) {
                     buttons.add(new Button(this.buttons.get(i), buttonUrls.get(i)));
                 }
             }
-            buttons = buttons.isEmpty() ? null : buttons;
             return new RichPresence(state, details, timestamps, assets, party, secrets, buttons);
         }
     }
+
+    // Whether builders create assets for these values
+    private static boolean hasAssets(String largeImage, String largeText, String smallImage, String smallText) {
+        // Bad code, fix later
+        if ((largeImage != null && largeText != null) || (smallImage != null && smallText != null)) {
+            if ((largeImage != null && (largeImage.isEmpty() || largeText.isEmpty())) // If largeImage isn't null, so isn't largeText
+                    || (smallImage != null && (smallImage.isEmpty() || smallText.isEmpty()))) {
+                throw new IllegalArgumentException("RichPresence must not be built with empty image strings");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A builder meant to be kept and filled again for every update, producing the same presences as {@link Builder}.
+     * Timestamps are primitives with {@link ReusableBuilder#UNSET} standing for a missing value, and parts which did not change since the last
+     * {@link ReusableBuilder#build()} are shared with the last built presence, so building an unchanged presence allocates nothing and returns the same instance.
+     * Not thread safe
+     */
+    public static final class ReusableBuilder {
+        /**
+         * Marks a timestamp as not set
+         */
+        public static final long UNSET = Long.MIN_VALUE;
+
+        private String state;
+        private String details;
+        private long start;
+        private long end;
+        private String largeImage;
+        private String largeText;
+        private String smallImage;
+        private String smallText;
+        private String partyId;
+        private int partySize;
+        private int partyMax;
+        private String join;
+        private String spectate;
+        private String match;
+        // Buttons of the last build stay in place, addButton only replaces the ones which differ
+        private Button[] buttons = new Button[0];
+        private int buttonCount;
+
+        private RichPresence last = null;
+
+        public ReusableBuilder() {
+            reset();
+        }
+
+        /**
+         * Unsets every value, the last built presence is still shared with the next build where possible
+         * @return This builder
+         */
+        public ReusableBuilder reset() {
+            state = null;
+            details = null;
+            start = UNSET;
+            end = UNSET;
+            largeImage = null;
+            largeText = null;
+            smallImage = null;
+            smallText = null;
+            partyId = null;
+            join = null;
+            spectate = null;
+            match = null;
+            buttonCount = 0;
+            return this;
+        }
+
+        public ReusableBuilder setText(@Nullable String details, @Nullable String state) {
+            this.state = state;
+            this.details = details;
+            return this;
+        }
+
+        /**
+         * Unix timestamps (such as from {@link System#currentTimeMillis()} divided by 1000)
+         * @param start The start, or {@link ReusableBuilder#UNSET}
+         * @param end The end, or {@link ReusableBuilder#UNSET}
+         * @return This builder
+         */
+        public ReusableBuilder setTimestamps(long start, long end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        /**
+         * @see Builder#setAssets(String, String, String, String)
+         */
+        public ReusableBuilder setAssets(@Nullable String largeImage,
+                                         @Nullable String largeText,
+                                         @Nullable String smallImage,
+                                         @Nullable String smallText) {
+            this.largeImage = largeImage;
+            this.largeText = largeText;
+            this.smallImage = smallImage;
+            this.smallText = smallText;
+            return this;
+        }
+
+        /**
+         * @param id The party id, null leaves party info out
+         * @return This builder
+         */
+        public ReusableBuilder setPartyInfo(@Nullable String id, int size, int max) {
+            this.partyId = id;
+            this.partySize = size;
+            this.partyMax = max;
+            return this;
+        }
+
+        public ReusableBuilder setSecrets(@Nullable String join, @Nullable String spectate, @Nullable String match) {
+            this.join = join;
+            this.spectate = spectate;
+            this.match = match;
+            return this;
+        }
+
+        public ReusableBuilder addButton(@Nonnull String name, @Nonnull String url) {
+            if (buttonCount == buttons.length) {
+                buttons = Arrays.copyOf(buttons, Math.max(2, buttonCount * 2));
+            }
+            var button = buttons[buttonCount];
+            if (button == null || !button.label().equals(name) || !button.url().equals(url)) {
+                buttons[buttonCount] = new Button(name, url);
+            }
+            buttonCount++;
+            return this;
+        }
+
+        /**
+         * Builds a {@link RichPresence} from the data in this builder, sharing unchanged parts with the last built one
+         * @throws IllegalArgumentException If any of the image keys or texts was an empty string, discord does not accept those
+         * @return The built {@link RichPresence}, the last one itself if nothing changed
+         */
+        public RichPresence build() {
+            var last = this.last;
+            var timestamps = last != null && sameTime(last.timestamps.start, start) && sameTime(last.timestamps.end, end)
+                    ? last.timestamps
+                    : start == UNSET && end == UNSET ? NO_TIMESTAMPS : new Timestamps(start == UNSET ? null : start, end == UNSET ? null : end);
+
+            Assets assets = null;
+            if (hasAssets(largeImage, largeText, smallImage, smallText)) {
+                assets = last != null && last.assets != null && last.assets.equals(largeImage, largeText, smallImage, smallText)
+                        ? last.assets
+                        : new Assets(largeImage, largeText, smallImage, smallText);
+            }
+
+            Party party = null;
+            if (partyId != null) {
+                party = last != null && last.party != null && last.party.id.equals(partyId)
+                        && last.party.size[0] == partySize && last.party.size[1] == partyMax
+                        ? last.party
+                        : new Party(partyId, new int[]{partySize, partyMax});
+            }
+
+            Secrets secrets = null;
+            if (join != null || spectate != null || match != null) {
+                secrets = last != null && last.secrets != null && Objects.equals(last.secrets.join, join)
+                        && Objects.equals(last.secrets.spectate, spectate) && Objects.equals(last.secrets.match, match)
+                        ? last.secrets
+                        : new Secrets(join, spectate, match);
+            }
+
+            List<Button> buttons = null;
+            if (buttonCount > 0) {
+                buttons = last != null && sameButtons(last.buttons) ? last.buttons : List.of(Arrays.copyOf(this.buttons, buttonCount));
+            }
+
+            if (last != null && Objects.equals(last.state, state) && Objects.equals(last.details, details) && last.timestamps == timestamps
+                    && last.assets == assets && last.party == party && last.secrets == secrets && last.buttons == buttons) {
+                return last;
+            }
+            this.last = new RichPresence(state, details, timestamps, assets, party, secrets, buttons);
+            return this.last;
+        }
+
+        private static boolean sameTime(Long built, long value) {
+            return built == null ? value == UNSET : built == value;
+        }
+
+        private boolean sameButtons(List<Button> built) {
+            if (built == null || built.size() != buttonCount) {
+                return false;
+            }
+            for (int i = 0; i < buttonCount; i++) {
+                if (built.get(i) != buttons[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -0,0 +1,20 @@
+package club.bottomservices.discordrpc.lib;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+/**
+ * What a graceful {@link DiscordRPCClient#disconnect(Duration)} managed to deliver before closing the pipe
+ * @param unansweredCommands Commands discord had not replied to by the deadline, their futures failed with a {@link club.bottomservices.discordrpc.lib.exceptions.NotConnectedException}
+ * @param unwrittenBytes Bytes still queued for writing by the deadline, only ever non-zero for pipes driven by a {@link club.bottomservices.discordrpc.lib.pipe.PipeEventLoop}
+ * @param closeSent Whether the CLOSE packet was written
+ * @param duration Time the disconnect took
+ */
+public record ShutdownReport(int unansweredCommands, long unwrittenBytes, boolean closeSent, @Nonnull Duration duration) {
+    /**
+     * @return Whether everything was delivered and discord was told about the close
+     */
+    public boolean isClean() {
+        return unansweredCommands == 0 && unwrittenBytes == 0 && closeSent;
+    }
+}
@@ -0,0 +1,77 @@
+package club.bottomservices.discordrpc.lib;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Future of a presence which may replace older presences before it is written, the futures of the replaced ones complete along with it.
+ * Whoever completes it must pass the outcome on through {@link SupersedingFuture#settleFollowers(CommandResponse, Throwable)}
+ */
+class SupersedingFuture extends CompletableFuture<CommandResponse> {
+    // Kept flat since presences may replace each other thousands of times in a row.
+    // Guarded by this, null once settled
+    private List<SupersedingFuture> followers = new ArrayList<>(0);
+
+    /**
+     * Makes a replaced future complete along with this one, together with whatever it adopted itself.
+     * If this settled already the outcome is passed on right away
+     */
+    void adopt(@Nonnull SupersedingFuture superseded) {
+        List<SupersedingFuture> inherited;
+        synchronized (superseded) {
+            inherited = superseded.followers;
+            if (inherited != null) {
+                // A follower added to it meanwhile still completes along with it
+                superseded.followers = new ArrayList<>(0);
+            }
+        }
+        synchronized (this) {
+            if (followers != null) {
+                followers.add(superseded);
+                if (inherited != null) {
+                    followers.addAll(inherited);
+                }
+                return;
+            }
+        }
+        // Settled already, such as by its timeout
+        forwardTo(superseded);
+        if (inherited != null) {
+            for (var follower : inherited) {
+                forwardTo(follower);
+            }
+        }
+    }
+
+    /**
+     * Completes every adopted future the same way this one completed
+     */
+    void settleFollowers(@Nullable CommandResponse response, @Nullable Throwable error) {
+        List<SupersedingFuture> settled;
+        synchronized (this) {
+            settled = followers;
+            followers = null;
+        }
+        if (settled == null) {
+            return;
+        }
+        for (var follower : settled) {
+            settle(follower, response, error);
+        }
+    }
+
+    private void forwardTo(SupersedingFuture follower) {
+        whenComplete((response, error) -> settle(follower, response, error));
+    }
+
+    private static void settle(CompletableFuture<CommandResponse> future, CommandResponse response, Throwable error) {
+        if (error != null) {
+            future.completeExceptionally(error);
+        } else {
+            future.complete(response);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package club.bottomservices.discordrpc.lib.exceptions;
+
+import club.bottomservices.discordrpc.lib.ErrorEvent;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Exception signaling that discord answered a command with an ERROR event
+ * @see DiscordException
+ */
+public class CommandException extends DiscordException {
+    private final ErrorEvent error;
+
+    public CommandException(@Nonnull ErrorEvent error) {
+        super("Discord rejected command with error " + error.code + ": " + error.message);
+        this.error = error;
+    }
+
+    /**
+     * @return The ERROR event discord replied with
+     */
+    @Nonnull
+    public ErrorEvent getError() {
+        return error;
+    }
+}
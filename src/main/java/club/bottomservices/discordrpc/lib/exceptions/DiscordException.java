@@ -4,6 +4,7 @@ package club.bottomservices.discordrpc.lib.exceptions;
  * Exception signaling an error during a discord connection, all discord errors will be thrown as a subclass of this class
  * @see NoDiscordException
  * @see NotConnectedException
+ * @see CommandException
  */
 public class DiscordException extends RuntimeException {
     public DiscordException(String message) {
@@ -0,0 +1,331 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import club.bottomservices.discordrpc.lib.DiscordPacket;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A reusable direct buffer which packets are encoded into, headers included, so they can be handed to {@link Pipe#write(ByteBuffer)} without copying.
+ * Json written through this class is identical to what {@link JsonElement#toString()} produces.
+ * Instances are not thread safe, obtain them from a {@link Pool}
+ */
+public final class FrameBuffer {
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private ByteBuffer buffer;
+    // Offset of the header of the packet being written, packets before it are complete
+    private int frameStart = 0;
+
+    public FrameBuffer(int capacity) {
+        buffer = ByteBuffer.allocateDirect(Math.max(capacity, HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+        clear();
+    }
+
+    /**
+     * Discards any written data, leaving room for the header
+     * @return This buffer
+     */
+    public FrameBuffer clear() {
+        frameStart = 0;
+        buffer.clear().position(HEADER_SIZE);
+        return this;
+    }
+
+    private void putHeader(DiscordPacket.OpCode opCode) {
+        buffer.putInt(frameStart, opCode.ordinal())
+                .putInt(frameStart + Integer.BYTES, size());
+    }
+
+    /**
+     * Writes the packet header in front of the written payload, an empty packet following other ones is left out
+     * @return The underlying buffer, positioned at the start of the first packet and limited to the end of the last one
+     */
+    @Nonnull
+    public ByteBuffer finish(@Nonnull DiscordPacket.OpCode opCode) {
+        if (frameStart > 0 && size() == 0) {
+            buffer.limit(frameStart).position(0);
+            return buffer;
+        }
+        putHeader(opCode);
+        buffer.limit(buffer.position()).position(0);
+        return buffer;
+    }
+
+    /**
+     * Completes the packet being written and starts another one right after it, so several packets go out in a single write
+     * @return This buffer
+     */
+    public FrameBuffer next(@Nonnull DiscordPacket.OpCode opCode) {
+        putHeader(opCode);
+        ensure(HEADER_SIZE);
+        frameStart = buffer.position();
+        buffer.position(frameStart + HEADER_SIZE);
+        return this;
+    }
+
+    /**
+     * @return The amount of payload bytes of the packet being written
+     */
+    public int size() {
+        return buffer.position() - frameStart - HEADER_SIZE;
+    }
+
+    /**
+     * Discards the end of the payload of the packet being written
+     * @param size A value previously returned by {@link FrameBuffer#size()}
+     * @return This buffer
+     */
+    public FrameBuffer truncate(int size) {
+        buffer.position(frameStart + HEADER_SIZE + size);
+        return this;
+    }
+
+    /**
+     * Copies the payload bytes written since the payload had the given size
+     * @param from A value previously returned by {@link FrameBuffer#size()}
+     */
+    @Nonnull
+    public byte[] copy(int from) {
+        byte[] bytes = new byte[size() - from];
+        buffer.get(frameStart + HEADER_SIZE + from, bytes);
+        return bytes;
+    }
+
+    /**
+     * Same as {@link FrameBuffer#copy(int)}, reusing the given array if the bytes fit
+     * @param into An array to copy into, may be null
+     * @return The array holding the bytes at its start, which may be longer than them
+     */
+    @Nonnull
+    public byte[] copy(int from, @Nullable byte[] into) {
+        int length = size() - from;
+        byte[] bytes = into != null && into.length >= length ? into : new byte[length];
+        buffer.get(frameStart + HEADER_SIZE + from, bytes, 0, length);
+        return bytes;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            var grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes)).order(ByteOrder.LITTLE_ENDIAN);
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+    }
+
+    public FrameBuffer put(int b) {
+        ensure(1);
+        buffer.put((byte) b);
+        return this;
+    }
+
+    public FrameBuffer put(@Nonnull byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+        return this;
+    }
+
+    /**
+     * Writes the first {@code length} bytes of the array
+     */
+    public FrameBuffer put(@Nonnull byte[] bytes, int length) {
+        ensure(length);
+        buffer.put(bytes, 0, length);
+        return this;
+    }
+
+    public FrameBuffer putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return putAscii("-9223372036854775808");
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= end - digits; i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+        return this;
+    }
+
+    /**
+     * Writes a string which is known to only contain ascii characters that need no escaping
+     */
+    public FrameBuffer putAscii(@Nonnull String ascii) {
+        int length = ascii.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) ascii.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a quoted and escaped json string
+     */
+    public FrameBuffer putString(@Nonnull CharSequence value) {
+        int length = value.length();
+        // Worst case of every char being escaped as \\uXXXX
+        ensure(length * 6 + 2);
+        buffer.put((byte) '"');
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                switch (c) {
+                    case '"' -> buffer.put((byte) '\\').put((byte) '"');
+                    case '\\' -> buffer.put((byte) '\\').put((byte) '\\');
+                    case '\t' -> buffer.put((byte) '\\').put((byte) 't');
+                    case '\b' -> buffer.put((byte) '\\').put((byte) 'b');
+                    case '\n' -> buffer.put((byte) '\\').put((byte) 'n');
+                    case '\r' -> buffer.put((byte) '\\').put((byte) 'r');
+                    case '\f' -> buffer.put((byte) '\\').put((byte) 'f');
+                    default -> {
+                        if (c < 0x20) {
+                            putUnicodeEscape(c);
+                        } else {
+                            buffer.put((byte) c);
+                        }
+                    }
+                }
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6))
+                        .put((byte) (0x80 | c & 0x3F));
+            } else if (c == 0x2028 || c == 0x2029) {
+                putUnicodeEscape(c);
+            } else if (Character.isSurrogate(c)) {
+                char low;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(low = value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, low);
+                    buffer.put((byte) (0xF0 | codePoint >> 18))
+                            .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                            .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                            .put((byte) (0x80 | codePoint & 0x3F));
+                    i++;
+                } else {
+                    // Same replacement as String#getBytes
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12))
+                        .put((byte) (0x80 | c >> 6 & 0x3F))
+                        .put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        buffer.put((byte) '"');
+        return this;
+    }
+
+    private void putUnicodeEscape(char c) {
+        buffer.put((byte) '\\').put((byte) 'u')
+                .put(HEX[c >> 12 & 0xF])
+                .put(HEX[c >> 8 & 0xF])
+                .put(HEX[c >> 4 & 0xF])
+                .put(HEX[c & 0xF]);
+    }
+
+    /**
+     * Writes a json tree
+     */
+    public FrameBuffer putJson(@Nonnull JsonElement json) {
+        if (json instanceof JsonObject object) {
+            put('{');
+            putMembers(object);
+            put('}');
+        } else if (json instanceof JsonArray array) {
+            put('[');
+            for (int i = 0; i < array.size(); i++) {
+                if (i != 0) {
+                    put(',');
+                }
+                putJson(array.get(i));
+            }
+            put(']');
+        } else if (json instanceof JsonPrimitive primitive) {
+            if (primitive.isString()) {
+                putString(primitive.getAsString());
+            } else if (primitive.isBoolean()) {
+                putAscii(primitive.getAsBoolean() ? "true" : "false");
+            } else if (primitive.getAsNumber() instanceof Long || primitive.getAsNumber() instanceof Integer) {
+                putLong(primitive.getAsLong());
+            } else {
+                putAscii(primitive.getAsNumber().toString());
+            }
+        } else {
+            putAscii("null");
+        }
+        return this;
+    }
+
+    /**
+     * Writes the members of a json object without the enclosing braces, so more members can be appended
+     */
+    public FrameBuffer putMembers(@Nonnull JsonObject json) {
+        boolean first = true;
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            putString(entry.getKey());
+            put(':');
+            putJson(entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * A small lock-free pool of {@link FrameBuffer}s, a client normally only needs one buffer per concurrent sender
+     */
+    public static final class Pool {
+        private final AtomicReferenceArray<FrameBuffer> slots;
+        private final int bufferCapacity;
+
+        public Pool(int size, int bufferCapacity) {
+            this.slots = new AtomicReferenceArray<>(size);
+            this.bufferCapacity = bufferCapacity;
+        }
+
+        /**
+         * @return A cleared buffer, newly allocated if the pool is empty
+         */
+        @Nonnull
+        public FrameBuffer acquire() {
+            for (int i = 0; i < slots.length(); i++) {
+                var buffer = slots.getAndSet(i, null);
+                if (buffer != null) {
+                    return buffer.clear();
+                }
+            }
+            return new FrameBuffer(bufferCapacity);
+        }
+
+        /**
+         * Returns a buffer to the pool, it is left for the garbage collector if the pool is full
+         */
+        public void release(@Nonnull FrameBuffer buffer) {
+            for (int i = 0; i < slots.length(); i++) {
+                if (slots.compareAndSet(i, null, buffer)) {
+                    return;
+                }
+            }
+        }
+    }
+}
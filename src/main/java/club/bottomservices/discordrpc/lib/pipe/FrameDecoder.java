@@ -0,0 +1,122 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import club.bottomservices.discordrpc.lib.DiscordPacket;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental decoder of discord packets, bytes are read into {@link FrameDecoder#receiveBuffer()} in any amount
+ * and {@link FrameDecoder#decode()} yields packets once they are complete, so short reads never corrupt the stream.
+ * The receive buffer is reused between packets and payloads are parsed straight from it, only as far as the consumer needs
+ */
+public final class FrameDecoder {
+    /**
+     * Default upper bound for the payload size of a single packet
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    /**
+     * Largest accepted max frame size, a payload of it together with its header still fits in a buffer
+     */
+    public static final int LARGEST_MAX_FRAME_SIZE = Integer.MAX_VALUE - HEADER_SIZE;
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final DiscordPacket.OpCode[] OP_CODES = DiscordPacket.OpCode.values();
+
+    private final int maxFrameSize;
+    private final PacketView view = new PacketView();
+    private final PacketHandler collector = packet -> decoded = packet.toPacket();
+    private DiscordPacket decoded = null;
+    // Always in write mode outside of decode()
+    private ByteBuffer receive = ByteBuffer.allocate(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @param maxFrameSize Largest accepted payload size in bytes, bigger packets fail decoding
+     */
+    public FrameDecoder(int maxFrameSize) {
+        if (maxFrameSize < 2) {
+            throw new IllegalArgumentException("Max frame size must fit at least an empty json object");
+        }
+        if (maxFrameSize > LARGEST_MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Max frame size must leave room for the header, the limit is " + LARGEST_MAX_FRAME_SIZE);
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public FrameDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @return The buffer that received bytes should be written into, it always has space remaining
+     */
+    @Nonnull
+    public ByteBuffer receiveBuffer() {
+        return receive;
+    }
+
+    /**
+     * Decodes the next complete packet out of the received bytes
+     * @return The packet, or null if more bytes are needed
+     * @throws IOException If the stream contains an invalid header or payload
+     */
+    @Nullable
+    public DiscordPacket decode() throws IOException {
+        decoded = null;
+        decode(collector);
+        var packet = decoded;
+        decoded = null;
+        return packet;
+    }
+
+    /**
+     * Passes the next complete packet out of the received bytes to a handler, without parsing its payload
+     * @return Whether a packet was handled, false if more bytes are needed
+     * @throws IOException If the stream contains an invalid header or payload, or the handler failed
+     */
+    public boolean decode(@Nonnull PacketHandler handler) throws IOException {
+        receive.flip();
+        int needed = HEADER_SIZE;
+        boolean handled = false;
+        try {
+            int start = receive.position();
+            if (receive.remaining() < HEADER_SIZE) {
+                return false;
+            }
+
+            int opCode = receive.getInt(start);
+            int size = receive.getInt(start + Integer.BYTES);
+            if (opCode < 0 || opCode >= OP_CODES.length) {
+                throw new IOException("Received packet with unknown opcode " + opCode);
+            }
+            if (size < 0 || size > maxFrameSize) {
+                throw new IOException("Received packet of " + size + " bytes, the limit is " + maxFrameSize);
+            }
+
+            needed = HEADER_SIZE + size;
+            if (receive.remaining() < needed) {
+                return false;
+            }
+
+            receive.position(start + needed);
+            view.reset(OP_CODES[opCode], receive, start + HEADER_SIZE, start + needed);
+            handler.accept(view);
+            handled = true;
+            return true;
+        } finally {
+            receive.compact();
+            if (receive.capacity() < needed) {
+                var grown = ByteBuffer.allocate(Math.max(needed, receive.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+                receive = grown.put(receive.flip());
+            } else if (handled && receive.capacity() > INITIAL_CAPACITY && receive.position() <= INITIAL_CAPACITY) {
+                // The big packet is done with, so one of them doesn't pin a buffer of its size for the rest of the connection
+                var shrunk = ByteBuffer.allocate(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+                receive = shrunk.put(receive.flip());
+            }
+        }
+    }
+}
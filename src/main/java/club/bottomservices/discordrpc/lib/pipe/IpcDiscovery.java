@@ -0,0 +1,186 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds the endpoints a discord client may be listening on.
+ * The endpoint that last accepted a connection is tried first, and while discord is absent
+ * {@link IpcDiscovery#watch(Runnable)} reports new sockets as they appear instead of callers retrying blindly
+ */
+public final class IpcDiscovery {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IpcDiscovery.class);
+    private static final String PREFIX = "discord-ipc-";
+    private static final int ENDPOINTS = 10;
+    private static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
+    private static final File RUNTIME_DIRECTORY = runtimeDirectory();
+
+    private static final CopyOnWriteArrayList<Runnable> WATCHERS = new CopyOnWriteArrayList<>();
+    private static volatile File lastWorking = null;
+    // Guarded by the class lock
+    private static WatchService watchService = null;
+
+    private IpcDiscovery() {
+    }
+
+    // The environment cannot change within a process, so it is only read once
+    private static File runtimeDirectory() {
+        for (var variable : new String[]{"XDG_RUNTIME_DIR", "TMPDIR", "TMP", "TEMP"}) {
+            var location = System.getenv(variable);
+            if (location != null) {
+                return new File(location);
+            }
+        }
+        return new File("/tmp");
+    }
+
+    /**
+     * @return The endpoints worth trying in order, the last working one first and then every existing {@code discord-ipc-N}
+     */
+    @Nonnull
+    static List<File> candidates() {
+        var candidates = new ArrayList<File>(ENDPOINTS + 1);
+        var last = lastWorking;
+        if (last != null && last.exists()) {
+            candidates.add(last);
+        }
+        for (int i = 0; i < ENDPOINTS; i++) {
+            var file = endpoint(i);
+            if (!file.equals(last) && file.exists()) {
+                candidates.add(file);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return Every {@code discord-ipc-N} endpoint which currently exists, in index order.
+     * Several discord clients, such as stable and canary, each listen on their own one, and a crashed client may leave a stale one behind
+     */
+    @Nonnull
+    public static List<Path> endpoints() {
+        var endpoints = new ArrayList<Path>(ENDPOINTS);
+        for (int i = 0; i < ENDPOINTS; i++) {
+            var file = endpoint(i);
+            if (file.exists()) {
+                endpoints.add(file.toPath());
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * @return A file in the directory discord creates its sockets in, for sockets other processes on this machine should find
+     */
+    @Nonnull
+    public static Path runtimePath(@Nonnull String name) {
+        return new File(RUNTIME_DIRECTORY, name).toPath();
+    }
+
+    private static File endpoint(int index) {
+        return IS_WINDOWS ? new File("\\\\.\\pipe\\" + PREFIX + index) : new File(RUNTIME_DIRECTORY, PREFIX + index);
+    }
+
+    /**
+     * Records the endpoint a pipe successfully connected to
+     */
+    static void connected(@Nonnull File endpoint) {
+        lastWorking = endpoint;
+    }
+
+    /**
+     * Runs the callback on a shared watcher thread every time a discord socket is created, until the returned handle is closed.
+     * Nothing is ever reported on windows, where named pipes cannot be watched, or if the runtime directory cannot be watched
+     *
+     * @param callback Should return quickly, it delays every other watcher
+     * @return A handle removing the callback when closed
+     */
+    @Nonnull
+    public static Closeable watch(@Nonnull Runnable callback) {
+        if (IS_WINDOWS || !startWatching()) {
+            return () -> {
+            };
+        }
+        WATCHERS.add(callback);
+        return () -> WATCHERS.remove(callback);
+    }
+
+    private static synchronized boolean startWatching() {
+        if (watchService != null) {
+            return true;
+        }
+        WatchService service = null;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            RUNTIME_DIRECTORY.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Cannot watch {} for discord sockets", RUNTIME_DIRECTORY, e);
+            closeQuietly(service);
+            return false;
+        }
+        var started = service;
+        watchService = started;
+        var thread = new Thread(() -> watchLoop(started), "DiscordRPC Endpoint Watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    // Blocks in the kernel between events, costing nothing while discord is absent
+    private static void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean appeared = false;
+                for (var event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || event.context() instanceof Path path && path.getFileName().toString().startsWith(PREFIX)) {
+                        appeared = true;
+                    }
+                }
+                if (!key.reset()) {
+                    LOGGER.debug("{} is no longer watchable", RUNTIME_DIRECTORY);
+                    break;
+                }
+                if (appeared) {
+                    for (var watcher : WATCHERS) {
+                        try {
+                            watcher.run();
+                        } catch (RuntimeException e) {
+                            LOGGER.error("Exception in endpoint watcher", e);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+        synchronized (IpcDiscovery.class) {
+            watchService = null;
+        }
+        closeQuietly(service);
+    }
+
+    private static void closeQuietly(WatchService service) {
+        if (service == null) {
+            return;
+        }
+        try {
+            service.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
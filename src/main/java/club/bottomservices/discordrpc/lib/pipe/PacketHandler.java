@@ -0,0 +1,15 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Receives packets read by {@link Pipe#read(PacketHandler)}
+ */
+@FunctionalInterface
+public interface PacketHandler {
+    /**
+     * @param packet A view of the packet, only valid until this method returns
+     */
+    void accept(@Nonnull PacketView packet) throws IOException;
+}
@@ -0,0 +1,356 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import club.bottomservices.discordrpc.lib.DiscordPacket;
+import club.bottomservices.discordrpc.lib.DiscordRPCClient;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A received packet whose payload has only been scanned for its top level {@code evt}, {@code nonce} and {@code data} members.
+ * Nothing is parsed until asked for, so packets nobody is interested in cost a single pass over their bytes.
+ * A view is reused and only valid inside the {@link PacketHandler} it was passed to
+ */
+public final class PacketView {
+    /**
+     * Returned by {@link PacketView#nonce()} when the packet has no nonce generated by this library
+     */
+    public static final long NO_NONCE = -1;
+
+    private static final byte[] EVT = "evt".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NONCE = "nonce".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = "data".getBytes(StandardCharsets.US_ASCII);
+    // Known event names are returned as constants instead of allocating a string for each packet
+    private static final String[] EVENTS = {"READY", "ERROR", "ACTIVITY_JOIN", "ACTIVITY_SPECTATE", "ACTIVITY_JOIN_REQUEST"};
+    private static final byte[][] EVENT_BYTES = new byte[EVENTS.length][];
+
+    static {
+        for (int i = 0; i < EVENTS.length; i++) {
+            EVENT_BYTES[i] = EVENTS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final PayloadReader reader = new PayloadReader();
+    private DiscordPacket.OpCode opCode;
+    private ByteBuffer buffer = null;
+    private ByteBuffer source = null;
+    private int start;
+    private int end;
+    private int evtStart;
+    private int evtEnd;
+    private int dataStart;
+    private int dataEnd;
+    private long nonce;
+
+    /**
+     * Creates a standalone view of an already parsed packet, used by pipes that do not decode packets themselves
+     */
+    @Nonnull
+    public static PacketView of(@Nonnull DiscordPacket packet) throws IOException {
+        byte[] payload = String.valueOf(packet.json()).getBytes(StandardCharsets.UTF_8);
+        var view = new PacketView();
+        view.reset(packet.opCode(), ByteBuffer.wrap(payload), 0, payload.length);
+        return view;
+    }
+
+    /**
+     * Points this view at a payload and scans its top level members
+     * @throws IOException If the payload is not a json object
+     */
+    void reset(@Nonnull DiscordPacket.OpCode opCode, @Nonnull ByteBuffer buffer, int start, int end) throws IOException {
+        if (this.buffer != buffer) {
+            this.buffer = buffer;
+            this.source = buffer.duplicate();
+        }
+        this.opCode = opCode;
+        this.start = start;
+        this.end = end;
+        evtStart = -1;
+        dataStart = -1;
+        nonce = NO_NONCE;
+
+        int i = skipWhitespace(start);
+        if (i >= end || buffer.get(i) != '{') {
+            throw malformed();
+        }
+        i = skipWhitespace(i + 1);
+        if (i < end && buffer.get(i) == '}') {
+            return;
+        }
+        while (true) {
+            if (i >= end || buffer.get(i) != '"') {
+                throw malformed();
+            }
+            int keyStart = i + 1;
+            i = skipString(i);
+            int keyEnd = i - 1;
+            i = skipWhitespace(i);
+            if (i >= end || buffer.get(i) != ':') {
+                throw malformed();
+            }
+            int valueStart = skipWhitespace(i + 1);
+            i = skipValue(valueStart);
+
+            if (matches(keyStart, keyEnd, EVT)) {
+                if (buffer.get(valueStart) == '"') {
+                    evtStart = valueStart + 1;
+                    evtEnd = i - 1;
+                }
+            } else if (matches(keyStart, keyEnd, NONCE)) {
+                nonce = parseNonce(valueStart, i);
+            } else if (matches(keyStart, keyEnd, DATA)) {
+                dataStart = valueStart;
+                dataEnd = i;
+            }
+
+            i = skipWhitespace(i);
+            if (i >= end) {
+                throw malformed();
+            }
+            byte c = buffer.get(i);
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw malformed();
+            }
+            i = skipWhitespace(i + 1);
+        }
+    }
+
+    @Nonnull
+    public DiscordPacket.OpCode opCode() {
+        return opCode;
+    }
+
+    /**
+     * @return The size of the payload in bytes
+     */
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * @return The {@code evt} member of the packet, null if absent or null
+     */
+    @Nullable
+    public String evt() {
+        if (evtStart < 0) {
+            return null;
+        }
+        for (int i = 0; i < EVENTS.length; i++) {
+            if (matches(evtStart, evtEnd, EVENT_BYTES[i])) {
+                return EVENTS[i];
+            }
+        }
+        byte[] bytes = new byte[evtEnd - evtStart];
+        buffer.get(evtStart, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The {@code nonce} member of the packet if it is a counter nonce, {@link PacketView#NO_NONCE} otherwise
+     */
+    public long nonce() {
+        return nonce;
+    }
+
+    /**
+     * @return A reader positioned at the start of the {@code data} member, null if absent or null
+     */
+    @Nullable
+    public JsonReader data() {
+        if (dataStart < 0 || buffer.get(dataStart) == 'n') {
+            return null;
+        }
+        return reader(dataStart, dataEnd);
+    }
+
+    /**
+     * @return The {@code data} member parsed into a tree, null if absent or not an object
+     * @throws IOException If the data is malformed
+     */
+    @Nullable
+    public JsonObject dataTree() throws IOException {
+        var data = data();
+        return data == null ? null : parse(data);
+    }
+
+    /**
+     * Parses the whole payload, for consumers of {@link Pipe#read()}
+     * @throws IOException If the payload is malformed
+     */
+    @Nonnull
+    public DiscordPacket toPacket() throws IOException {
+        return new DiscordPacket(opCode, parse(reader(start, end)));
+    }
+
+    private static JsonObject parse(JsonReader reader) throws IOException {
+        try {
+            return DiscordRPCClient.GSON.fromJson(reader, JsonObject.class);
+        } catch (JsonParseException e) {
+            throw new IOException("Received malformed packet payload", e);
+        }
+    }
+
+    private JsonReader reader(int from, int to) {
+        source.limit(to).position(from);
+        return new JsonReader(reader.reset(source));
+    }
+
+    private IOException malformed() {
+        return new IOException("Received malformed packet payload");
+    }
+
+    private boolean matches(int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(from + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseNonce(int from, int to) {
+        // Only quoted decimal counters are ours, anything else cannot match a pending command
+        if (to - from < 3 || to - from > 20 || buffer.get(from) != '"' || buffer.get(to - 1) != '"') {
+            return NO_NONCE;
+        }
+        long value = 0;
+        for (int i = from + 1; i < to - 1; i++) {
+            byte c = buffer.get(i);
+            if (c < '0' || c > '9') {
+                return NO_NONCE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < end) {
+            byte c = buffer.get(i);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    // Returns the index after the closing quote of the string starting at i
+    private int skipString(int i) throws IOException {
+        i++;
+        while (i < end) {
+            byte c = buffer.get(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        throw malformed();
+    }
+
+    // Returns the index after the value starting at i
+    private int skipValue(int i) throws IOException {
+        if (i >= end) {
+            throw malformed();
+        }
+        byte c = buffer.get(i);
+        if (c == '"') {
+            return skipString(i);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (i < end) {
+                c = buffer.get(i);
+                if (c == '"') {
+                    i = skipString(i);
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+            throw malformed();
+        }
+        while (i < end) {
+            c = buffer.get(i);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    // Decodes utf-8 straight out of the receive buffer, reused for every packet
+    private static final class PayloadReader extends Reader {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final char[] pair = new char[2];
+        private ByteBuffer source;
+        private boolean hasPending = false;
+
+        Reader reset(ByteBuffer source) {
+            this.source = source;
+            this.hasPending = false;
+            decoder.reset();
+            return this;
+        }
+
+        @Override
+        public int read(@Nonnull char[] cbuf, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (hasPending) {
+                cbuf[off] = pair[1];
+                hasPending = false;
+                return 1;
+            }
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            var out = CharBuffer.wrap(cbuf, off, len);
+            decoder.decode(source, out, true);
+            if (!source.hasRemaining()) {
+                decoder.flush(out);
+            }
+            int read = out.position() - off;
+            if (read == 0 && source.hasRemaining()) {
+                // A surrogate pair did not fit, hand it out one char at a time
+                var chars = CharBuffer.wrap(pair);
+                decoder.decode(source, chars, true);
+                cbuf[off] = pair[0];
+                hasPending = chars.position() > 1;
+                return 1;
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -7,6 +7,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
@@ -28,9 +29,70 @@ public interface Pipe extends Closeable {
      */
     void write(byte[] data) throws IOException;
 
+    /**
+     * Writes all remaining bytes of the given buffer to the underlying pipe
+     */
+    default void write(@Nonnull ByteBuffer buffer) throws IOException {
+        write(new ByteBuffer[]{buffer});
+    }
+
+    /**
+     * Writes all remaining bytes of the given buffers to the underlying pipe, in order.
+     * Implementations should override this with a gathering write, the default copies everything into a single array
+     */
+    default void write(@Nonnull ByteBuffer... buffers) throws IOException {
+        int size = 0;
+        for (var buffer : buffers) {
+            size += buffer.remaining();
+        }
+        byte[] data = new byte[size];
+        int offset = 0;
+        for (var buffer : buffers) {
+            int length = buffer.remaining();
+            buffer.get(data, offset, length);
+            offset += length;
+        }
+        write(data);
+    }
+
+    /**
+     * Writes a presence packet which a later one may replace while it is still waiting to be written, which only pipes with a write queue do.
+     * The default writes it like any other packet
+     *
+     * @param nonce      The nonce the presence was sent with
+     * @param superseded Told about the replacing presence if this one is dropped
+     * @see UnixPipe#setHighWaterMark(int, UnixPipe.OverflowPolicy)
+     */
+    default void writeSupersedable(@Nonnull ByteBuffer buffer, long nonce, @Nonnull SupersedeListener superseded) throws IOException {
+        write(buffer);
+    }
+
+    /**
+     * Waits until everything written so far was handed to the underlying pipe, pipes without a write queue have nothing to wait for
+     * @return Whether everything was written in time
+     */
+    default boolean awaitWritten(long timeoutNanos) {
+        return true;
+    }
+
     /**
      * Reads a {@link DiscordPacket} from the underlying pipe, this method blocks until enough data has been read
      */
     @Nullable
     DiscordPacket read() throws IOException;
+
+    /**
+     * Reads a packet from the underlying pipe and passes it to the handler without parsing it into a tree, this method blocks until enough data has been read.
+     * Implementations should override this, the default parses the packet through {@link Pipe#read()}
+     * @return False if nothing could be read because the pipe was disconnected
+     * @throws IOException If the packet breaks the protocol, such as a payload over the max frame size, or the handler failed
+     */
+    default boolean read(@Nonnull PacketHandler handler) throws IOException {
+        var packet = read();
+        if (packet == null) {
+            return false;
+        }
+        handler.accept(PacketView.of(packet));
+        return true;
+    }
 }
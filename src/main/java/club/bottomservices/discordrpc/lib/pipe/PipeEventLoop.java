@@ -0,0 +1,157 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import club.bottomservices.discordrpc.lib.exceptions.DiscordException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread multiplexing any number of {@link UnixPipe}s through one {@link Selector},
+ * so many connections can be serviced without a read thread each.
+ * Windows pipes are not selectable and always use a dedicated thread
+ * @see club.bottomservices.discordrpc.lib.DiscordRPCClient#setEventLoop(PipeEventLoop)
+ */
+public final class PipeEventLoop implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipeEventLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Opens a selector and starts its thread
+     * @throws DiscordException If the selector could not be opened
+     */
+    public PipeEventLoop() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new DiscordException("Failed to open selector", e);
+        }
+        thread = new Thread(this::run, "DiscordRPC Event Loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Callbacks for a registered pipe, invoked on the event loop thread
+     */
+    public interface Handler {
+        /**
+         * @param packet A view of the packet, only valid until this method returns
+         * @throws IOException If handling the packet failed, the pipe is then reported through {@link Handler#onFailure(IOException)}.
+         *                     A {@link RuntimeException} is reported the same way, wrapped in an IOException
+         */
+        void onPacket(@Nonnull PacketView packet) throws IOException;
+
+        /**
+         * Fired once when reading or writing fails, the pipe is no longer serviced afterwards.
+         * An {@link java.io.EOFException} means discord closed the pipe, an {@link AsynchronousCloseException} that this loop was closed
+         */
+        void onFailure(@Nonnull IOException exception);
+    }
+
+    /**
+     * Switches a connected pipe to non-blocking mode and starts servicing it.
+     * Closing the pipe unregisters it
+     */
+    public void register(@Nonnull UnixPipe pipe, @Nonnull Handler handler) {
+        if (!running) {
+            throw new IllegalStateException("Event loop is closed");
+        }
+        tasks.add(() -> {
+            try {
+                var channel = pipe.channel();
+                channel.configureBlocking(false);
+                pipe.register(channel.register(selector, SelectionKey.OP_READ, new Registration(pipe, handler)));
+            } catch (IOException e) {
+                handler.onFailure(e);
+            }
+        });
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                LOGGER.error("Event loop selector failed", e);
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+
+            var keys = selector.selectedKeys();
+            for (var key : keys) {
+                var registration = (Registration) key.attachment();
+                try {
+                    if (key.isWritable()) {
+                        registration.pipe.flush();
+                    }
+                    if (key.isReadable()) {
+                        registration.pipe.readAvailable(registration.handler::onPacket);
+                    }
+                } catch (CancelledKeyException ignored) {
+                    // The pipe was closed while being serviced
+                } catch (IOException e) {
+                    fail(key, registration, e);
+                } catch (RuntimeException e) {
+                    // The pipe is in an unknown state, likely halfway through a packet, so it is given up like after an IOException
+                    fail(key, registration, new IOException("Exception while servicing pipe", e));
+                }
+            }
+            keys.clear();
+        }
+
+        for (var key : selector.keys()) {
+            if (key.isValid()) {
+                ((Registration) key.attachment()).handler.onFailure(new AsynchronousCloseException());
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close selector", e);
+        }
+    }
+
+    private static void fail(SelectionKey key, Registration registration, IOException e) {
+        key.cancel();
+        if (key.channel().isOpen()) {
+            registration.handler.onFailure(e);
+        }
+    }
+
+    /**
+     * Stops the loop, every pipe still registered is reported as failed with an {@link AsynchronousCloseException}
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private record Registration(UnixPipe pipe, Handler handler) {
+    }
+}
@@ -0,0 +1,14 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+/**
+ * Notified when a queued presence packet is dropped for a newer one
+ * @see Pipe#writeSupersedable(java.nio.ByteBuffer, long, SupersedeListener)
+ */
+@FunctionalInterface
+public interface SupersedeListener {
+    /**
+     * @param nonce The nonce of the dropped presence
+     * @param by    The nonce of the presence replacing it
+     */
+    void onSuperseded(long nonce, long by);
+}
@@ -1,84 +1,312 @@
 package club.bottomservices.discordrpc.lib.pipe;
 
 import club.bottomservices.discordrpc.lib.DiscordPacket;
-import club.bottomservices.discordrpc.lib.DiscordRPCClient;
 import club.bottomservices.discordrpc.lib.exceptions.NoDiscordException;
-import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.net.StandardProtocolFamily;
 import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
 
 public class UnixPipe implements Pipe {
     private final SocketChannel socket;
+    private final FrameDecoder decoder;
+    // Only set once registered with a PipeEventLoop
+    private volatile SelectionKey key = null;
+    private volatile WriteQueue writeQueue = null;
+    private volatile int highWaterMark = Integer.MAX_VALUE;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_SUPERSEDED;
+    private volatile WriteListener writeListener = null;
+
+    /**
+     * How the write queue of a pipe driven by a {@link PipeEventLoop} is kept from growing while discord is not reading
+     * @see UnixPipe#setHighWaterMark(int, OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+        /**
+         * Every packet is kept, writers wait while more than the high-water mark of bytes is queued,
+         * except the event loop thread itself which never waits
+         */
+        BLOCK,
+        /**
+         * A queued presence which was not started yet is dropped whenever a newer one is queued, so the {@link WriteLane#PRESENCE} lane
+         * holds at most one presence and nothing ever waits. Commands are never dropped, writing one fails instead while more than the high-water mark of bytes is queued
+         */
+        DROP_SUPERSEDED
+    }
 
     public UnixPipe() {
-        Logger logger = LoggerFactory.getLogger(UnixPipe.class);
-        try {
-            socket = SocketChannel.open(StandardProtocolFamily.UNIX);
-        } catch (IOException e) {
-            throw new NoDiscordException("Failed to open socket", e);
-        }
+        this(FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+    }
 
-        String[] locations = {"XDG_RUNTIME_DIR", "TMPDIR", "TMP", "TEMP"};
-        String location = null;
+    /**
+     * @param maxFrameSize Largest accepted payload size of a received packet
+     */
+    public UnixPipe(int maxFrameSize) {
+        this(IpcDiscovery.candidates(), true, maxFrameSize);
+    }
 
-        for (var possible : locations) {
-            location = System.getenv(possible);
-            if (location != null) {
-                break;
-            }
-        }
+    /**
+     * Connects to a specific socket instead of looking for a discord client, for example a fake server in tests
+     *
+     * @param path The socket to connect to
+     */
+    public UnixPipe(@Nonnull Path path) {
+        this(path, FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+    }
 
-        if (location == null) {
-            location = "/tmp";
-        }
+    /**
+     * @param path         The socket to connect to
+     * @param maxFrameSize Largest accepted payload size of a received packet
+     */
+    public UnixPipe(@Nonnull Path path, int maxFrameSize) {
+        this(List.of(path.toFile()), false, maxFrameSize);
+    }
 
-        for (int i = 0; i < 10; i++) {
-            var file = new File(location + "/discord-ipc-" + i);
-            if (file.exists()) {
+    /**
+     * Wraps a connection accepted by a server which speaks discord's protocol, such as a presence broker
+     *
+     * @param socket       The accepted connection, in blocking mode
+     * @param maxFrameSize Largest accepted payload size of a received packet
+     */
+    public UnixPipe(@Nonnull SocketChannel socket, int maxFrameSize) {
+        decoder = new FrameDecoder(maxFrameSize);
+        this.socket = socket;
+    }
+
+    private UnixPipe(List<File> endpoints, boolean discovered, int maxFrameSize) {
+        decoder = new FrameDecoder(maxFrameSize);
+        Logger logger = LoggerFactory.getLogger(UnixPipe.class);
+
+        SocketChannel connected = null;
+        for (var file : endpoints) {
+            // A channel is closed by a failed connect, so each endpoint gets its own
+            SocketChannel channel;
+            try {
+                channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            } catch (IOException e) {
+                throw new NoDiscordException("Failed to open socket", e);
+            }
+            try {
+                channel.connect(UnixDomainSocketAddress.of(file.getCanonicalPath()));
+                if (discovered) {
+                    IpcDiscovery.connected(file);
+                }
+                connected = channel;
+                break;
+            } catch (IOException e) {
+                logger.debug("IOException while binding socket {}", file, e);
                 try {
-                    socket.connect(UnixDomainSocketAddress.of(file.getCanonicalPath()));
-                    break;
-                } catch (IOException e) {
-                    logger.debug("IOException while binding socket {}", i, e);
+                    channel.close();
+                } catch (IOException ignored) {
                 }
             }
         }
 
-        if (!socket.isConnected()) {
+        if (connected == null) {
             throw new NoDiscordException("Discord client not found");
         }
+        socket = connected;
     }
 
     @Override
     public void write(byte[] data) throws IOException {
-        socket.write(ByteBuffer.wrap(data));
+        write(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public void write(@Nonnull ByteBuffer buffer) throws IOException {
+        var queue = writeQueue;
+        if (queue != null) {
+            queue.write(new ByteBuffer[]{buffer}, PacketView.NO_NONCE, null);
+            return;
+        }
+
+        long start = System.nanoTime();
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+        written(WriteLane.COMMAND, start);
+    }
+
+    @Override
+    public void write(@Nonnull ByteBuffer... buffers) throws IOException {
+        var queue = writeQueue;
+        if (queue != null) {
+            queue.write(buffers, PacketView.NO_NONCE, null);
+            return;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < buffers.length; ) {
+            if (buffers[i].hasRemaining()) {
+                socket.write(buffers, i, buffers.length - i);
+            } else {
+                i++;
+            }
+        }
+        written(WriteLane.COMMAND, start);
+    }
+
+    private void written(WriteLane lane, long start) {
+        var listener = writeListener;
+        if (listener != null) {
+            listener.onWritten(lane, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void writeSupersedable(@Nonnull ByteBuffer buffer, long nonce, @Nonnull SupersedeListener superseded) throws IOException {
+        var queue = writeQueue;
+        if (queue != null) {
+            queue.write(new ByteBuffer[]{buffer}, nonce, superseded);
+            return;
+        }
+
+        long start = System.nanoTime();
+        while (buffer.hasRemaining()) {
+            socket.write(buffer);
+        }
+        written(WriteLane.PRESENCE, start);
+    }
+
+    /**
+     * Sets the listener told about every written packet and how long it took, including time spent queued while driven by a {@link PipeEventLoop}
+     */
+    public void setWriteListener(@Nullable WriteListener writeListener) {
+        this.writeListener = writeListener;
+        var queue = writeQueue;
+        if (queue != null) {
+            queue.setListener(writeListener);
+        }
+    }
+
+    /**
+     * Sets how the write queue is kept from growing while driven by a {@link PipeEventLoop}, where writes never wait for the socket otherwise.
+     * {@link OverflowPolicy#DROP_SUPERSEDED} with no mark by default, which bounds presences but not commands
+     *
+     * @param highWaterMark Queued bytes above which writing a command waits or fails, depending on the policy
+     * @param policy        How the queue is bounded
+     */
+    public void setHighWaterMark(int highWaterMark, @Nonnull OverflowPolicy policy) {
+        if (highWaterMark <= 0) {
+            throw new IllegalArgumentException("High-water mark must be positive");
+        }
+        this.highWaterMark = highWaterMark;
+        this.overflowPolicy = policy;
+        var queue = writeQueue;
+        if (queue != null) {
+            queue.setHighWaterMark(highWaterMark, policy);
+        }
+    }
+
+    @Override
+    public boolean awaitWritten(long timeoutNanos) {
+        var queue = writeQueue;
+        return queue == null || queue.awaitEmpty(timeoutNanos);
+    }
+
+    /**
+     * @return The amount of bytes waiting to be written, always 0 unless driven by a {@link PipeEventLoop} and 0 again once closed
+     */
+    public long getQueuedBytes() {
+        var queue = writeQueue;
+        return queue == null ? 0 : queue.queuedBytes();
+    }
+
+    /**
+     * Switches this pipe to non-blocking mode, from now on it is driven by the given key's selector.
+     * Called on the event loop thread
+     */
+    void register(@Nonnull SelectionKey key) {
+        var queue = new WriteQueue(socket, key, Thread.currentThread());
+        queue.setHighWaterMark(highWaterMark, overflowPolicy);
+        queue.setListener(writeListener);
+        writeQueue = queue;
+        this.key = key;
     }
 
+    @Nonnull
+    SocketChannel channel() {
+        return socket;
+    }
+
+    /**
+     * Writes as much queued data as the socket accepts, called by the event loop when the socket is writable
+     */
+    void flush() throws IOException {
+        // Cleared first, a flush which leaves data behind sets it again
+        key.interestOps(SelectionKey.OP_READ);
+        writeQueue.flush();
+    }
+
+    /**
+     * Reads everything currently available without blocking, passing each complete packet to the handler
+     * @throws EOFException If discord closed the pipe
+     */
+    void readAvailable(@Nonnull PacketHandler handler) throws IOException {
+        int read;
+        do {
+            read = socket.read(decoder.receiveBuffer());
+            boolean decoded = true;
+            // The handler may close the pipe
+            while (decoded && socket.isOpen()) {
+                decoded = decoder.decode(handler);
+            }
+        } while (read > 0 && socket.isOpen());
+        if (read < 0) {
+            throw new EOFException("Discord closed the pipe");
+        }
+    }
+
+    /**
+     * Reads a packet, blocking until it is complete.
+     * Must not be called once this pipe is registered with a {@link PipeEventLoop}
+     */
     @Nonnull
     @Override
     public DiscordPacket read() throws IOException {
-        var header = ByteBuffer.allocate(2 * Integer.BYTES);
-        socket.read(header);
+        if (key != null) {
+            throw new IllegalStateException("Pipe is driven by an event loop");
+        }
+        DiscordPacket packet;
+        while ((packet = decoder.decode()) == null) {
+            if (socket.read(decoder.receiveBuffer()) < 0) {
+                throw new EOFException("Discord closed the pipe");
+            }
+        }
+        return packet;
+    }
 
-        header.flip();
-        var opCode = DiscordPacket.OpCode.values()[Integer.reverseBytes(header.getInt())];
-        int size = Integer.reverseBytes(header.getInt());
-        var payload = ByteBuffer.allocate(size);
-        socket.read(payload);
-        return new DiscordPacket(opCode, DiscordRPCClient.GSON.fromJson(new String(payload.flip().array(), StandardCharsets.UTF_8), JsonObject.class));
+    @Override
+    public boolean read(@Nonnull PacketHandler handler) throws IOException {
+        if (key != null) {
+            throw new IllegalStateException("Pipe is driven by an event loop");
+        }
+        while (!decoder.decode(handler)) {
+            if (socket.read(decoder.receiveBuffer()) < 0) {
+                throw new EOFException("Discord closed the pipe");
+            }
+        }
+        return true;
     }
 
     @Override
     public void close() throws IOException {
+        var queue = writeQueue;
+        if (queue != null) {
+            queue.close();
+        }
         socket.close();
     }
 }
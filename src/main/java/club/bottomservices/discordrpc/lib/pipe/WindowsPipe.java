@@ -7,31 +7,61 @@ import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
 
 public class WindowsPipe implements Pipe {
-    private final DiscordRPCClient client;
+    private static final DiscordPacket.OpCode[] OP_CODES = DiscordPacket.OpCode.values();
+
+    private final int maxFrameSize;
+    private final PacketView view = new PacketView();
+    private DiscordPacket.OpCode frameOpCode = null;
 
     private RandomAccessFile pipe = null;
+    private volatile boolean closed = false;
 
-    public WindowsPipe(DiscordRPCClient client) {
-        this.client = client;
+    public WindowsPipe() {
+        this(FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize Largest accepted payload size of a received packet
+     */
+    public WindowsPipe(int maxFrameSize) {
+        this(IpcDiscovery.candidates(), true, maxFrameSize);
+    }
+
+    /**
+     * Connects to a specific named pipe instead of the first working one
+     *
+     * @param path         The pipe to connect to, such as one returned by {@link IpcDiscovery#endpoints()}
+     * @param maxFrameSize Largest accepted payload size of a received packet
+     */
+    public WindowsPipe(@Nonnull Path path, int maxFrameSize) {
+        this(List.of(path.toFile()), false, maxFrameSize);
+    }
+
+    private WindowsPipe(List<File> endpoints, boolean discovered, int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
 
         Logger logger = LoggerFactory.getLogger(WindowsPipe.class);
-        for (int i = 0; i < 10; i++) {
-            var file = new File("\\\\.\\pipe\\discord-ipc-" + i);
-            if (file.exists()) {
-                try {
-                    pipe = new RandomAccessFile(file, "rw");
-                    break;
-                } catch (FileNotFoundException e) {
-                    logger.info("Discord pipe {} is not writable", i, e);
+        for (var file : endpoints) {
+            try {
+                pipe = new RandomAccessFile(file, "rw");
+                if (discovered) {
+                    IpcDiscovery.connected(file);
                 }
+                break;
+            } catch (FileNotFoundException e) {
+                logger.info("Discord pipe {} is not writable", file, e);
             }
         }
         if (pipe == null) {
@@ -39,37 +69,112 @@ public class WindowsPipe implements Pipe {
         }
     }
 
+    /**
+     * @deprecated The client is no longer needed, use {@link WindowsPipe#WindowsPipe()}
+     */
+    @Deprecated
+    public WindowsPipe(DiscordRPCClient client) {
+        this();
+    }
+
+    /**
+     * @deprecated The client is no longer needed, use {@link WindowsPipe#WindowsPipe(int)}
+     */
+    @Deprecated
+    public WindowsPipe(DiscordRPCClient client, int maxFrameSize) {
+        this(maxFrameSize);
+    }
+
     @Override
     public void write(byte[] data) throws IOException {
         pipe.write(data);
     }
 
+    @Override
+    public void write(@Nonnull ByteBuffer buffer) throws IOException {
+        var channel = pipe.getChannel();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void write(@Nonnull ByteBuffer... buffers) throws IOException {
+        var channel = pipe.getChannel();
+        for (int i = 0; i < buffers.length; ) {
+            if (buffers[i].hasRemaining()) {
+                channel.write(buffers, i, buffers.length - i);
+            } else {
+                i++;
+            }
+        }
+    }
+
     @Nullable
     @Override
     public DiscordPacket read() throws IOException {
-        // Necessary to avoid closing lock due to pipe.read() blocking
-        while (client.isConnected && pipe.length() == 0) {
-            try {
-                Thread.sleep(60);
-            } catch (InterruptedException ignored) {
-            }
+        var payload = readFrame();
+        if (payload == null) {
+            return null;
         }
+        String data = new String(payload, StandardCharsets.UTF_8);
+        return new DiscordPacket(frameOpCode, DiscordRPCClient.GSON.fromJson(data, JsonObject.class));
+    }
 
+    @Override
+    public boolean read(@Nonnull PacketHandler handler) throws IOException {
+        var payload = readFrame();
+        if (payload == null) {
+            return false;
+        }
+        view.reset(frameOpCode, ByteBuffer.wrap(payload), 0, payload.length);
+        handler.accept(view);
+        return true;
+    }
+
+    // Reads the payload of the next packet and its opcode into frameOpCode, or returns null if a disconnection occurred.
+    // A header breaking the limits is not a disconnection, so it fails instead
+    @Nullable
+    private byte[] readFrame() throws IOException {
+        awaitData();
+        int opCode;
+        int size;
         try {
-            var opCode = DiscordPacket.OpCode.values()[Integer.reverseBytes(pipe.readInt())];
-            var size = Integer.reverseBytes(pipe.readInt());
-            byte[] payload = new byte[size];
-            pipe.read(payload);
-            String data = new String(payload, StandardCharsets.UTF_8);
-            return new DiscordPacket(opCode, DiscordRPCClient.GSON.fromJson(data, JsonObject.class));
-            // If a disconnection occurred
+            opCode = Integer.reverseBytes(pipe.readInt());
+            size = Integer.reverseBytes(pipe.readInt());
         } catch (IOException e) {
             return null;
         }
+        if (opCode < 0 || opCode >= OP_CODES.length) {
+            throw new IOException("Received packet with unknown opcode " + opCode);
+        }
+        if (size < 0 || size > maxFrameSize) {
+            throw new IOException("Received packet of " + size + " bytes, the limit is " + maxFrameSize);
+        }
+
+        byte[] payload = new byte[size];
+        try {
+            pipe.readFully(payload);
+        } catch (IOException e) {
+            return null;
+        }
+        frameOpCode = OP_CODES[opCode];
+        return payload;
+    }
+
+    private void awaitData() throws IOException {
+        // Necessary to avoid closing lock due to pipe.read() blocking
+        while (!closed && pipe.length() == 0) {
+            try {
+                Thread.sleep(60);
+            } catch (InterruptedException ignored) {
+            }
+        }
     }
 
     @Override
     public void close() throws IOException {
+        closed = true;
         pipe.close();
     }
 }
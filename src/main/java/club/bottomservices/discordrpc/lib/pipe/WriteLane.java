@@ -0,0 +1,16 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+/**
+ * Priority of a packet waiting in the write queue of a pipe driven by a {@link PipeEventLoop}.
+ * Queued commands are written before queued presences, and a queued presence can be replaced by a newer one
+ */
+public enum WriteLane {
+    /**
+     * Commands such as replies to join requests, which a user may be waiting on
+     */
+    COMMAND,
+    /**
+     * Presence updates, which only matter until the next one
+     */
+    PRESENCE
+}
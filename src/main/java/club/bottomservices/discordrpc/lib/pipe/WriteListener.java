@@ -0,0 +1,17 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Notified whenever a {@link UnixPipe} finished writing a packet
+ * @see UnixPipe#setWriteListener(WriteListener)
+ */
+@FunctionalInterface
+public interface WriteListener {
+    /**
+     * Called on whichever thread wrote the last byte, so it must be cheap
+     * @param lane The lane the packet was queued in
+     * @param latencyNanos Time between the write call and the packet being handed to the socket, including time spent queued
+     */
+    void onWritten(@Nonnull WriteLane lane, long latencyNanos);
+}
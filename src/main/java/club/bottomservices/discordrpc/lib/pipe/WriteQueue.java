@@ -0,0 +1,311 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbound packets of a non-blocking {@link UnixPipe}, in one queue per {@link WriteLane}.
+ * Any thread may enqueue, and whichever thread holds the write flag, a writer or the event loop, writes as much as the socket accepts,
+ * commands first and presences once no command is waiting.
+ * A packet the socket only partially accepted stays at the head until the event loop resumes it
+ */
+final class WriteQueue {
+    private final SocketChannel socket;
+    private final SelectionKey key;
+    private final Thread ioThread;
+    private final ConcurrentLinkedQueue<Entry> commands = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Entry> presences = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    // Only touched by the holder of writing
+    private Entry current = null;
+
+    private volatile int highWaterMark = Integer.MAX_VALUE;
+    private volatile UnixPipe.OverflowPolicy policy = UnixPipe.OverflowPolicy.DROP_SUPERSEDED;
+    private volatile boolean closed = false;
+    private volatile WriteListener listener = null;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    // Guarded by lock, read without it to skip signalling when nobody waits
+    private volatile int blocked = 0;
+
+    WriteQueue(@Nonnull SocketChannel socket, @Nonnull SelectionKey key, @Nonnull Thread ioThread) {
+        this.socket = socket;
+        this.key = key;
+        this.ioThread = ioThread;
+    }
+
+    void setHighWaterMark(int highWaterMark, @Nonnull UnixPipe.OverflowPolicy policy) {
+        this.highWaterMark = highWaterMark;
+        this.policy = policy;
+        signalDrained();
+    }
+
+    void setListener(@Nullable WriteListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The amount of bytes waiting to be written, 0 once closed since whatever was queued got discarded
+     */
+    long queuedBytes() {
+        return closed ? 0 : queuedBytes.get();
+    }
+
+    /**
+     * Writes the buffers, queueing copies of whatever the socket does not accept right away
+     * @param nonce Identifies a presence packet a later one may replace, {@link PacketView#NO_NONCE} for a command
+     * @param superseded Told about the replacing packet if this one is dropped
+     */
+    void write(@Nonnull ByteBuffer[] buffers, long nonce, @Nullable SupersedeListener superseded) throws IOException {
+        if (closed) {
+            throw new AsynchronousCloseException();
+        }
+        long start = System.nanoTime();
+        var lane = nonce == PacketView.NO_NONCE ? WriteLane.COMMAND : WriteLane.PRESENCE;
+        int size = remaining(buffers);
+        // Fast path, nothing is queued so the caller's buffers can be written without copying
+        if (isEmpty() && writing.compareAndSet(false, true)) {
+            int remaining = size;
+            try {
+                if (isEmpty()) {
+                    socket.write(buffers);
+                    remaining = remaining(buffers);
+                    if (remaining > 0 && remaining < size) {
+                        // Partly on the wire already, so the rest must come next whatever its lane
+                        var rest = new Entry(copy(buffers, remaining), lane, start, nonce, superseded);
+                        rest.claim();
+                        queuedBytes.addAndGet(remaining);
+                        current = rest;
+                    }
+                }
+            } finally {
+                writing.set(false);
+            }
+            if (remaining < size) {
+                if (remaining == 0) {
+                    written(lane, start);
+                }
+                // Picks up packets other writers left to this thread, and hands the rest of a started one to the event loop
+                flush();
+                return;
+            }
+        }
+
+        enqueue(new Entry(copy(buffers, size), lane, start, nonce, superseded));
+        flush();
+    }
+
+    private static int remaining(ByteBuffer[] buffers) {
+        int remaining = 0;
+        for (var buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private static ByteBuffer copy(ByteBuffer[] buffers, int remaining) {
+        var copy = ByteBuffer.allocate(remaining);
+        for (var buffer : buffers) {
+            copy.put(buffer);
+        }
+        return copy.flip();
+    }
+
+    // Only valid while holding writing, or as a hint without it
+    private boolean isEmpty() {
+        return current == null && commands.isEmpty() && presences.isEmpty();
+    }
+
+    private void enqueue(Entry entry) throws IOException {
+        int size = entry.data.remaining();
+        if (policy == UnixPipe.OverflowPolicy.DROP_SUPERSEDED) {
+            if (entry.lane == WriteLane.PRESENCE) {
+                dropSuperseded(entry.nonce);
+            } else if (overHighWaterMark(size)) {
+                throw new IOException("Write queue holds " + queuedBytes.get() + " bytes, the high-water mark is " + highWaterMark);
+            }
+        } else if (overHighWaterMark(size) && Thread.currentThread() != ioThread) {
+            awaitSpace(size);
+        }
+        queuedBytes.addAndGet(size);
+        (entry.lane == WriteLane.COMMAND ? commands : presences).add(entry);
+    }
+
+    // A packet bigger than the mark still fits into an empty queue
+    private boolean overHighWaterMark(int size) {
+        long queued = queuedBytes.get();
+        return queued > 0 && queued + size > highWaterMark;
+    }
+
+    // Drops queued presences which were not started yet, they are out of date
+    private void dropSuperseded(long by) {
+        for (var iterator = presences.iterator(); iterator.hasNext(); ) {
+            var entry = iterator.next();
+            if (entry.claim()) {
+                iterator.remove();
+                released(entry.data.capacity());
+                if (entry.superseded != null) {
+                    entry.superseded.onSuperseded(entry.nonce, by);
+                }
+            }
+        }
+    }
+
+    private void awaitSpace(int size) throws IOException {
+        lock.lock();
+        blocked++;
+        try {
+            while (!closed && overHighWaterMark(size) && policy == UnixPipe.OverflowPolicy.BLOCK) {
+                drained.awaitUninterruptibly();
+            }
+        } finally {
+            blocked--;
+            lock.unlock();
+        }
+        if (closed) {
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    /**
+     * Waits until everything queued was written, or the queue was closed
+     * @return Whether the queue is empty
+     */
+    boolean awaitEmpty(long timeoutNanos) {
+        lock.lock();
+        blocked++;
+        try {
+            long remaining = timeoutNanos;
+            while (!closed && queuedBytes.get() > 0) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = drained.awaitNanos(remaining);
+            }
+            return queuedBytes.get() == 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blocked--;
+            lock.unlock();
+        }
+    }
+
+    private void written(WriteLane lane, long start) {
+        var listener = this.listener;
+        if (listener != null) {
+            listener.onWritten(lane, System.nanoTime() - start);
+        }
+    }
+
+    private void released(int size) {
+        queuedBytes.addAndGet(-size);
+        if (blocked > 0) {
+            signalDrained();
+        }
+    }
+
+    private void signalDrained() {
+        lock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes queued packets until the queue is empty or the socket is full, in which case the event loop is asked to call this again once it is writable
+     */
+    void flush() throws IOException {
+        while (writing.compareAndSet(false, true)) {
+            boolean done;
+            try {
+                done = drain();
+            } finally {
+                writing.set(false);
+            }
+            if (!done) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+                return;
+            }
+            // Packets queued while the flag was held were left to this thread
+            if (commands.isEmpty() && presences.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    // Returns whether everything was written, only called while holding writing
+    private boolean drain() throws IOException {
+        while (true) {
+            var entry = current;
+            if (entry == null) {
+                entry = commands.poll();
+                if (entry == null) {
+                    entry = presences.poll();
+                }
+                if (entry == null) {
+                    return true;
+                }
+                if (!entry.claim()) {
+                    // Dropped as superseded
+                    continue;
+                }
+                current = entry;
+            }
+            socket.write(entry.data);
+            if (entry.data.hasRemaining()) {
+                return false;
+            }
+            current = null;
+            released(entry.data.capacity());
+            written(entry.lane, entry.start);
+        }
+    }
+
+    /**
+     * Discards everything queued and wakes blocked writers, which then fail
+     */
+    void close() {
+        closed = true;
+        commands.clear();
+        presences.clear();
+        signalDrained();
+    }
+
+    private static final class Entry {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final ByteBuffer data;
+        private final WriteLane lane;
+        private final long start;
+        private final long nonce;
+        private final SupersedeListener superseded;
+
+        Entry(ByteBuffer data, WriteLane lane, long start, long nonce, SupersedeListener superseded) {
+            this.data = data;
+            this.lane = lane;
+            this.start = start;
+            this.nonce = nonce;
+            this.superseded = superseded;
+        }
+
+        // Taken exactly once, either to be written or to be dropped
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
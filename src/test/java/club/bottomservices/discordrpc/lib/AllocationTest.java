@@ -0,0 +1,100 @@
+package club.bottomservices.discordrpc.lib;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the steady state of sending presences over a blocking pipe allocates nothing on the sending thread, once the JIT compiled the send path.
+ * Measured with {@link com.sun.management.ThreadMXBean#getCurrentThreadAllocatedBytes()}, so work done by the read thread is not counted.
+ * Pipes driven by a {@link club.bottomservices.discordrpc.lib.pipe.PipeEventLoop} are left out, they copy whatever the socket does not take right away
+ */
+class AllocationTest {
+    private static final int WARMUP = 100_000;
+    private static final int MEASURED = 20_000;
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private FakeDiscordServer server;
+    private DiscordRPCClient client;
+
+    @BeforeEach
+    void connect() throws Exception {
+        server = FakeDiscordServer.start();
+        client = new DiscordRPCClient("123");
+        client.setIpcPath(server.path());
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    private void ready() throws Exception {
+        client.connect();
+        client.whenReady().get(5, TimeUnit.SECONDS);
+    }
+
+    // Average bytes allocated per call once warmed up
+    private double allocatedPerCall(IntConsumer call) {
+        for (int i = 0; i < WARMUP; i++) {
+            call.accept(i);
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED; i++) {
+            call.accept(i);
+        }
+        return (double) (threads.getCurrentThreadAllocatedBytes() - before) / MEASURED;
+    }
+
+    private static RichPresence[] presences() {
+        var builder = new RichPresence.Builder()
+                .setAssets("large", "Large image", "small", "Small image")
+                .setPartyInfo("party", 1, 4)
+                .addButton("Website", "https://example.com");
+        var presences = new RichPresence[8];
+        for (int i = 0; i < presences.length; i++) {
+            presences[i] = builder.setText("Allocation test", "Step " + i).setTimestamps(1_000L + i, null).build();
+        }
+        return presences;
+    }
+
+    @Test
+    void repeatedPresenceAllocatesNothing() throws Exception {
+        ready();
+        var presence = presences()[0];
+        client.sendPresence(presence);
+
+        double allocated = allocatedPerCall(i -> client.sendPresence(presence));
+        assertTrue(allocated < 1, "Allocated " + allocated + " bytes per repeated presence");
+    }
+
+    @Test
+    void changingPresenceAllocatesNothing() throws Exception {
+        server.setAnswering(false);
+        ready();
+        var presences = presences();
+
+        double allocated = allocatedPerCall(i -> client.sendPresence(presences[i & 7]));
+        assertTrue(allocated < 1, "Allocated " + allocated + " bytes per changed presence");
+    }
+
+    @Test
+    void unchangedTemplateAllocatesNothing() throws Exception {
+        ready();
+        var template = new PresenceTemplate(presences()[0]);
+        Long start = 1_000_000L;
+        client.sendPresence(template.setTimestamps(start, null));
+
+        // A game tick setting the same values again
+        double allocated = allocatedPerCall(i -> client.sendPresence(template.setText("Allocation test", "Step 0").setTimestamps(start, null)));
+        assertTrue(allocated < 1, "Allocated " + allocated + " bytes per unchanged template");
+    }
+}
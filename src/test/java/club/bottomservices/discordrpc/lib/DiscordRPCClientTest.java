@@ -0,0 +1,302 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.CommandException;
+import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import club.bottomservices.discordrpc.lib.pipe.PipeEventLoop;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+/**
+ * Drives {@link DiscordRPCClient} against a {@link FakeDiscordServer}, once with a read thread per connection and once through a {@link PipeEventLoop}
+ */
+class DiscordRPCClientTest {
+    static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    enum Mode {
+        READ_THREAD,
+        EVENT_LOOP
+    }
+
+    private FakeDiscordServer server;
+    private PipeEventLoop eventLoop;
+    private final List<DiscordRPCClient> clients = new ArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = FakeDiscordServer.start();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        for (var client : clients) {
+            client.disableAutoReconnect();
+            client.close();
+        }
+        if (eventLoop != null) {
+            eventLoop.close();
+        }
+        server.close();
+    }
+
+    private DiscordRPCClient client(Mode mode, EventListener listener) {
+        var client = new DiscordRPCClient(listener, "123");
+        client.setIpcPath(server.path());
+        if (mode == Mode.EVENT_LOOP) {
+            if (eventLoop == null) {
+                eventLoop = new PipeEventLoop();
+            }
+            client.setEventLoop(eventLoop);
+        }
+        clients.add(client);
+        return client;
+    }
+
+    private DiscordRPCClient connected(Mode mode, EventListener listener) throws Exception {
+        var client = client(mode, listener);
+        client.connect();
+        client.whenReady().get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        return client;
+    }
+
+    private static RichPresence presence(String state) {
+        return new RichPresence.Builder().setText("Testing", state).build();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        return future.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        var e = assertThrows(ExecutionException.class, () -> await(future));
+        return e.getCause();
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void handshakeCompletesWithReady(Mode mode) throws Exception {
+        var client = client(mode, null);
+        client.connect();
+        var user = await(client.whenReady());
+
+        assertEquals(FakeDiscordServer.USERNAME, user.username);
+        assertEquals(ConnectionState.READY, client.getState());
+        var handshake = server.nextHandshake(TIMEOUT);
+        assertNotNull(handshake);
+        assertEquals("123", handshake.get("client_id").getAsString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void presenceIsAcknowledgedByNonce(Mode mode) throws Exception {
+        var client = connected(mode, null);
+        var response = await(client.sendPresenceAsync(presence("first")));
+
+        assertEquals("first", response.data().get("state").getAsString());
+        var command = server.nextCommand(TIMEOUT);
+        assertNotNull(command);
+        assertEquals("SET_ACTIVITY", command.get("cmd").getAsString());
+        assertTrue(command.has("nonce"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void repliesArriveDespiteLatency(Mode mode) throws Exception {
+        var client = connected(mode, null);
+        server.setLatency(Duration.ofMillis(100));
+        var first = client.respondAsync("1", true);
+        var second = client.sendPresenceAsync(presence("delayed"));
+
+        assertTrue(await(first).latency().toMillis() >= 100);
+        assertEquals("delayed", await(second).data().get("state").getAsString());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void fragmentedFramesAreReassembled(Mode mode) throws Exception {
+        var secret = new CompletableFuture<String>();
+        server.setFragmentation(3, Duration.ofMillis(1));
+        var client = connected(mode, new EventListener() {
+            @Override
+            public void onActivityJoin(@Nonnull DiscordRPCClient client, @Nonnull String joinSecret) {
+                secret.complete(joinSecret);
+            }
+        });
+
+        var response = client.sendPresenceAsync(presence("fragmented"));
+        var data = new JsonObject();
+        data.addProperty("secret", "party");
+        server.dispatch("ACTIVITY_JOIN", data);
+
+        assertEquals("fragmented", await(response).data().get("state").getAsString());
+        assertEquals("party", await(secret));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void shortReadsAreReassembled(Mode mode) throws Exception {
+        server.setFragmentation(1, Duration.ZERO);
+        var client = connected(mode, null);
+        var responses = new ArrayList<CompletableFuture<CommandResponse>>();
+        for (int i = 0; i < 20; i++) {
+            responses.add(client.respondAsync(String.valueOf(i), i % 2 == 0));
+        }
+        for (var response : responses) {
+            assertNotNull(await(response));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void rejectedCommandFails(Mode mode) throws Exception {
+        server.reject("SEND_ACTIVITY_JOIN_INVITE", 4000, "Unknown user");
+        var client = connected(mode, null);
+
+        var cause = failure(client.respondAsync("1", true));
+        var rejected = assertInstanceOf(CommandException.class, cause);
+        assertEquals(4000, rejected.getError().code);
+        assertEquals("Unknown user", rejected.getError().message);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void unansweredCommandTimesOut(Mode mode) throws Exception {
+        var client = connected(mode, null);
+        client.setCommandTimeout(Duration.ofMillis(200));
+        server.setAnswering(false);
+
+        assertInstanceOf(TimeoutException.class, failure(client.respondAsync("1", true)));
+        assertTrue(client.isConnected());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void abruptDisconnectClosesConnection(Mode mode) throws Exception {
+        var closed = new CountDownLatch(1);
+        var client = connected(mode, new EventListener() {
+            @Override
+            public void onClose(@Nonnull DiscordRPCClient client) {
+                closed.countDown();
+            }
+        });
+        server.setAnswering(false);
+        var pending = client.respondAsync("1", true);
+        assertNotNull(server.nextCommand(TIMEOUT));
+        server.disconnectAll();
+
+        assertTrue(closed.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertInstanceOf(NotConnectedException.class, failure(pending));
+        assertEquals(ConnectionState.DISCONNECTED, client.getState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void reconnectsAndReplaysPresence(Mode mode) throws Exception {
+        var client = connected(mode, null);
+        client.enableAutoReconnect(Duration.ofMillis(20), Duration.ofMillis(100));
+        client.sendPresence(presence("replayed"));
+        assertNotNull(server.nextCommand(TIMEOUT));
+
+        server.disconnectAll();
+        var replayed = server.nextCommand(TIMEOUT);
+
+        assertNotNull(replayed);
+        assertEquals("replayed", replayed.getAsJsonObject("args").getAsJsonObject("activity").get("state").getAsString());
+        assertEquals(2, server.getAcceptedCount());
+    }
+
+    static Stream<Arguments> malformedEvents() {
+        var events = new String[]{
+                // Decoders expecting a string or a number find an object
+                "{\"cmd\":\"DISPATCH\",\"evt\":\"ACTIVITY_JOIN\",\"data\":{\"secret\":{\"nested\":1}},\"nonce\":null}",
+                "{\"cmd\":\"DISPATCH\",\"evt\":\"ERROR\",\"data\":{\"code\":{},\"message\":\"broken\"},\"nonce\":null}",
+                "{\"cmd\":\"DISPATCH\",\"evt\":\"ACTIVITY_JOIN_REQUEST\",\"data\":{\"user\":[1,2]},\"nonce\":null}",
+                // Not json at all
+                "{\"cmd\":"
+        };
+        return Stream.of(Mode.values()).flatMap(mode -> Stream.of(events).map(event -> arguments(mode, event)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("malformedEvents")
+    void malformedEventIsReportedAndClosesConnection(Mode mode, String event) throws Exception {
+        var error = new CompletableFuture<IOException>();
+        var closed = new CountDownLatch(1);
+        var client = connected(mode, new EventListener() {
+            @Override
+            public void onError(@Nonnull DiscordRPCClient client, @Nullable IOException exception, @Nullable ErrorEvent event) {
+                error.complete(exception);
+            }
+
+            @Override
+            public void onClose(@Nonnull DiscordRPCClient client) {
+                closed.countDown();
+            }
+        });
+        server.sendFrame(DiscordPacket.OpCode.MESSAGE.ordinal(), event.getBytes(StandardCharsets.UTF_8));
+
+        assertNotNull(await(error));
+        assertTrue(closed.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertEquals(ConnectionState.DISCONNECTED, client.getState());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void throwingListenerKeepsConnection(Mode mode) throws Exception {
+        var client = connected(mode, new EventListener() {
+            @Override
+            public void onActivityJoin(@Nonnull DiscordRPCClient client, @Nonnull String joinSecret) {
+                throw new IllegalStateException("Broken listener");
+            }
+        });
+        var data = new JsonObject();
+        data.addProperty("secret", "party");
+        server.dispatch("ACTIVITY_JOIN", data);
+
+        assertEquals("still here", await(client.sendPresenceAsync(presence("still here"))).data().get("state").getAsString());
+        assertTrue(client.isConnected());
+    }
+
+    @ParameterizedTest
+    @EnumSource(Mode.class)
+    void stalledConnectionIsClosedOnTheMonitorThread(Mode mode) throws Exception {
+        var errorThread = new CompletableFuture<String>();
+        var client = connected(mode, new EventListener() {
+            @Override
+            public void onError(@Nonnull DiscordRPCClient client, @Nullable IOException exception, @Nullable ErrorEvent event) {
+                errorThread.complete(Thread.currentThread().getName());
+            }
+        });
+        var monitor = client.enableHealthMonitor(Duration.ofMillis(50), Duration.ofMillis(100));
+        await(client.ping(TIMEOUT));
+        server.setAnswering(false);
+
+        assertEquals("DiscordRPC Health Thread", await(errorThread));
+        assertEquals(1, monitor.getStallCount());
+    }
+}
@@ -0,0 +1,371 @@
+package club.bottomservices.discordrpc.lib;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A discord stand in speaking the IPC protocol on a unix socket, for tests and benchmarks.
+ * It answers the handshake with READY, PING with PONG and every command with a reply carrying the command's nonce,
+ * and misbehaves on demand: replies can be delayed, written in fragments with pauses in between so the client sees short reads,
+ * rejected with an ERROR or not sent at all, and connections can be dropped without a CLOSE packet.
+ * Settings apply to packets sent after they were changed
+ */
+final class FakeDiscordServer implements Closeable {
+    static final String USERNAME = "fake";
+
+    private final Path directory;
+    private final boolean temporary;
+    private final Path path;
+    private final ServerSocketChannel server;
+    private final CopyOnWriteArrayList<Connection> connections = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<JsonObject> commands = new LinkedBlockingQueue<>();
+    private final BlockingQueue<JsonObject> handshakes = new LinkedBlockingQueue<>();
+    private final ConcurrentHashMap<String, JsonObject> rejections = new ConcurrentHashMap<>();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private volatile long latencyNanos = 0;
+    private volatile int chunkSize = 0;
+    private volatile long chunkPauseNanos = 0;
+    private volatile boolean answering = true;
+    private volatile boolean reading = true;
+
+    private FakeDiscordServer(Path directory, int index, boolean temporary) throws IOException {
+        this.directory = directory;
+        this.temporary = temporary;
+        this.path = directory.resolve("discord-ipc-" + index);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+        daemon(this::acceptLoop, "Fake Discord Acceptor").start();
+    }
+
+    /**
+     * Binds a socket in a new temporary directory
+     */
+    @Nonnull
+    static FakeDiscordServer start() throws IOException {
+        return new FakeDiscordServer(Files.createTempDirectory("discordrpc-test"), 0, true);
+    }
+
+    /**
+     * Binds {@code discord-ipc-<index>} in the given directory, such as the one {@link club.bottomservices.discordrpc.lib.pipe.IpcDiscovery} searches
+     */
+    @Nonnull
+    static FakeDiscordServer start(@Nonnull Path directory, int index) throws IOException {
+        Files.deleteIfExists(directory.resolve("discord-ipc-" + index));
+        return new FakeDiscordServer(directory, index, false);
+    }
+
+    /**
+     * @return The socket to point {@link DiscordRPCClient#setIpcPath(Path)} at
+     */
+    @Nonnull
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Delays every packet the server sends
+     */
+    void setLatency(@Nonnull Duration latency) {
+        this.latencyNanos = latency.toNanos();
+    }
+
+    /**
+     * Writes packets in pieces of at most {@code chunkSize} bytes, pausing in between, so headers and payloads arrive split up
+     *
+     * @param chunkSize Size of each piece, 0 to write packets whole
+     */
+    void setFragmentation(int chunkSize, @Nonnull Duration pause) {
+        this.chunkSize = chunkSize;
+        this.chunkPauseNanos = pause.toNanos();
+    }
+
+    /**
+     * Makes the server stop answering commands and pings while still reading them, like a wedged discord client
+     */
+    void setAnswering(boolean answering) {
+        this.answering = answering;
+    }
+
+    /**
+     * Makes the server stop reading altogether, so writes to it back up once the socket is full
+     */
+    void setReading(boolean reading) {
+        this.reading = reading;
+    }
+
+    /**
+     * Answers every future command of the given name with an ERROR event
+     */
+    void reject(@Nonnull String cmd, int code, @Nonnull String message) {
+        var data = new JsonObject();
+        data.addProperty("code", code);
+        data.addProperty("message", message);
+        rejections.put(cmd, data);
+    }
+
+    /**
+     * Sends an event to every connected client
+     */
+    void dispatch(@Nonnull String evt, @Nonnull JsonObject data) {
+        var message = new JsonObject();
+        message.addProperty("cmd", "DISPATCH");
+        message.add("data", data);
+        message.addProperty("evt", evt);
+        message.add("nonce", JsonNull.INSTANCE);
+        for (var connection : connections) {
+            connection.send(DiscordPacket.OpCode.MESSAGE.ordinal(), message);
+        }
+    }
+
+    /**
+     * Sends a frame with an arbitrary opcode and payload to every connected client, for malformed or oversized packets
+     */
+    void sendFrame(int opCode, @Nonnull byte[] payload) {
+        for (var connection : connections) {
+            connection.send(opCode, payload);
+        }
+    }
+
+    /**
+     * Closes every connection without sending CLOSE, as if discord crashed
+     */
+    void disconnectAll() {
+        for (var connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return The next command received from any client, or null if none arrived in time
+     */
+    @Nullable
+    JsonObject nextCommand(@Nonnull Duration timeout) throws InterruptedException {
+        return commands.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The next handshake received from any client, or null if none arrived in time
+     */
+    @Nullable
+    JsonObject nextHandshake(@Nonnull Duration timeout) throws InterruptedException {
+        return handshakes.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return How many connections were accepted so far
+     */
+    int getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * @return How many connections are open
+     */
+    int getOpenCount() {
+        return connections.size();
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                var connection = new Connection(server.accept());
+                connections.add(connection);
+                accepted.incrementAndGet();
+                daemon(connection::readLoop, "Fake Discord Connection").start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        var thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        disconnectAll();
+        Files.deleteIfExists(path);
+        if (temporary) {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        // Delayed and fragmented packets are written in order by a single thread
+        private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "Fake Discord Writer"));
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void readLoop() {
+            var header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            var payload = ByteBuffer.allocate(4096);
+            try {
+                while (true) {
+                    while (!reading && channel.isOpen()) {
+                        Thread.sleep(10);
+                    }
+                    readFully(header.clear());
+                    int opCode = header.getInt(0);
+                    int size = header.getInt(Integer.BYTES);
+                    if (payload.capacity() < size) {
+                        payload = ByteBuffer.allocate(size);
+                    }
+                    readFully(payload.clear().limit(size));
+                    var json = JsonParser.parseString(new String(payload.array(), 0, size, StandardCharsets.UTF_8)).getAsJsonObject();
+                    if (!handle(opCode, json)) {
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException | InterruptedException ignored) {
+                // Gone, or sent something which is not json
+            } finally {
+                close();
+            }
+        }
+
+        // Returns false once the connection should be closed
+        private boolean handle(int opCode, JsonObject json) {
+            if (opCode == DiscordPacket.OpCode.HANDSHAKE.ordinal()) {
+                handshakes.add(json);
+                var user = new JsonObject();
+                user.addProperty("id", "1");
+                user.addProperty("username", USERNAME);
+                user.addProperty("discriminator", "0");
+                var data = new JsonObject();
+                data.addProperty("v", 1);
+                data.add("user", user);
+                var ready = new JsonObject();
+                ready.addProperty("cmd", "DISPATCH");
+                ready.add("data", data);
+                ready.addProperty("evt", "READY");
+                ready.add("nonce", JsonNull.INSTANCE);
+                send(DiscordPacket.OpCode.MESSAGE.ordinal(), ready);
+            } else if (opCode == DiscordPacket.OpCode.MESSAGE.ordinal()) {
+                commands.add(json);
+                if (answering) {
+                    send(DiscordPacket.OpCode.MESSAGE.ordinal(), reply(json));
+                }
+            } else if (opCode == DiscordPacket.OpCode.PING.ordinal()) {
+                if (answering) {
+                    send(DiscordPacket.OpCode.PONG.ordinal(), json);
+                }
+            } else if (opCode == DiscordPacket.OpCode.CLOSE.ordinal()) {
+                return false;
+            }
+            return true;
+        }
+
+        private JsonObject reply(JsonObject command) {
+            var cmd = command.has("cmd") ? command.get("cmd").getAsString() : null;
+            var message = new JsonObject();
+            message.addProperty("cmd", cmd);
+            var rejection = cmd == null ? null : rejections.get(cmd);
+            if (rejection != null) {
+                message.add("data", rejection);
+                message.addProperty("evt", "ERROR");
+            } else {
+                JsonElement data = new JsonObject();
+                // Discord echoes the activity it accepted
+                if ("SET_ACTIVITY".equals(cmd)) {
+                    var args = command.getAsJsonObject("args");
+                    data = args != null && args.has("activity") ? args.get("activity") : JsonNull.INSTANCE;
+                }
+                message.add("data", data);
+                message.add("evt", JsonNull.INSTANCE);
+            }
+            message.add("nonce", command.has("nonce") ? command.get("nonce") : JsonNull.INSTANCE);
+            return message;
+        }
+
+        void send(int opCode, JsonObject message) {
+            send(opCode, message.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        void send(int opCode, byte[] payload) {
+            var frame = ByteBuffer.allocate(2 * Integer.BYTES + payload.length).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(opCode).putInt(payload.length).put(payload).flip();
+            long latency = latencyNanos;
+            if (latency == 0 && chunkSize <= 0) {
+                write(frame);
+            } else {
+                writer.schedule(() -> write(frame), latency, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private synchronized void write(ByteBuffer frame) {
+            try {
+                int chunk = chunkSize;
+                if (chunk <= 0) {
+                    while (frame.hasRemaining()) {
+                        channel.write(frame);
+                    }
+                    return;
+                }
+                while (frame.hasRemaining()) {
+                    var piece = frame.slice(frame.position(), Math.min(chunk, frame.remaining()));
+                    while (piece.hasRemaining()) {
+                        channel.write(piece);
+                    }
+                    frame.position(frame.position() + piece.capacity());
+                    if (frame.hasRemaining()) {
+                        TimeUnit.NANOSECONDS.sleep(chunkPauseNanos);
+                    }
+                }
+            } catch (IOException ignored) {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            writer.shutdownNow();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
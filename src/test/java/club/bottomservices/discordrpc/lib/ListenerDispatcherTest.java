@@ -0,0 +1,137 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.ListenerDispatcher.Kind;
+import club.bottomservices.discordrpc.lib.ListenerDispatcher.OverflowPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static club.bottomservices.discordrpc.lib.DiscordRPCClientTest.TIMEOUT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class ListenerDispatcherTest {
+    // Holds drains back until run, so the queue fills up
+    private final List<Runnable> held = new ArrayList<>();
+    private final List<String> delivered = new ArrayList<>();
+
+    private ListenerDispatcher held(int capacity, OverflowPolicy policy) {
+        return new ListenerDispatcher(held::add, capacity, policy);
+    }
+
+    private void dispatch(ListenerDispatcher dispatcher, Kind kind, String name) {
+        dispatcher.dispatch(kind, () -> delivered.add(name));
+    }
+
+    private void runHeld() {
+        for (var drain : held) {
+            drain.run();
+        }
+        held.clear();
+    }
+
+    @Test
+    void listenerDispatchingIntoFullBlockingQueueDoesNotDeadlock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            var dispatcher = new ListenerDispatcher(executor, 1, OverflowPolicy.BLOCK);
+            var events = new ArrayList<String>();
+            var done = new CountDownLatch(1);
+            dispatcher.dispatch(Kind.READY, () -> {
+                for (int i = 0; i < 5; i++) {
+                    var name = "join " + i;
+                    dispatcher.dispatch(Kind.ACTIVITY_JOIN, () -> events.add(name));
+                }
+                dispatcher.dispatch(Kind.CLOSE, done::countDown);
+            });
+
+            assertTimeoutPreemptively(TIMEOUT, () -> done.await());
+            assertEquals(List.of("join 0", "join 1", "join 2", "join 3", "join 4"), events);
+            assertEquals(0, dispatcher.getDroppedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void dropOldestNeverDropsLifecycleEvents() {
+        var dispatcher = held(2, OverflowPolicy.DROP_OLDEST);
+        dispatch(dispatcher, Kind.READY, "ready");
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN, "join 1");
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN, "join 2");
+        dispatch(dispatcher, Kind.CLOSE, "close");
+        // Only lifecycle events are queued, so the new activity event goes
+        dispatch(dispatcher, Kind.ACTIVITY_SPECTATE, "spectate");
+        dispatch(dispatcher, Kind.ERROR, "error");
+        runHeld();
+
+        assertEquals(List.of("ready", "close", "error"), delivered);
+        assertEquals(3, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    void coalesceKeepsTheLatestOfEachKind() {
+        var dispatcher = held(8, OverflowPolicy.COALESCE);
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN, "join 1");
+        dispatch(dispatcher, Kind.ACTIVITY_SPECTATE, "spectate 1");
+        dispatch(dispatcher, Kind.READY, "ready");
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN, "join 2");
+        dispatch(dispatcher, Kind.ERROR, "error 1");
+        dispatch(dispatcher, Kind.ERROR, "error 2");
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN, "join 3");
+        runHeld();
+
+        // Far below the capacity, lifecycle events are never coalesced
+        assertEquals(List.of("spectate 1", "ready", "error 1", "error 2", "join 3"), delivered);
+        assertEquals(2, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    void coalesceDropsTheOldestWhenFullOfOtherKinds() {
+        var dispatcher = held(2, OverflowPolicy.COALESCE);
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN, "join");
+        dispatch(dispatcher, Kind.ACTIVITY_SPECTATE, "spectate");
+        dispatch(dispatcher, Kind.ACTIVITY_JOIN_REQUEST, "request");
+        dispatch(dispatcher, Kind.CLOSE, "close");
+        runHeld();
+
+        assertEquals(List.of("request", "close"), delivered);
+        assertEquals(2, dispatcher.getDroppedCount());
+    }
+
+    @Test
+    void blockingDispatchWaitsForTheListener() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            var dispatcher = new ListenerDispatcher(executor, 1, OverflowPolicy.BLOCK);
+            var release = new CountDownLatch(1);
+            dispatcher.dispatch(Kind.READY, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            dispatcher.dispatch(Kind.ACTIVITY_JOIN, () -> {
+            });
+            Future<?> blocked = reader.submit(() -> dispatcher.dispatch(Kind.ACTIVITY_JOIN, () -> {
+            }));
+
+            Thread.sleep(100);
+            assertFalse(blocked.isDone());
+            release.countDown();
+            blocked.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            reader.shutdownNow();
+        }
+    }
+}
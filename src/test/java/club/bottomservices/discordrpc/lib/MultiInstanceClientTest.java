@@ -0,0 +1,96 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.IpcDiscovery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static club.bottomservices.discordrpc.lib.DiscordRPCClientTest.TIMEOUT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two {@link FakeDiscordServer}s standing in for discord stable and canary, found through discovery
+ */
+class MultiInstanceClientTest {
+    private final FakeDiscordServer[] servers = new FakeDiscordServer[2];
+    private MultiInstanceClient client;
+
+    @BeforeEach
+    void startServers() throws IOException {
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = FakeDiscordServer.start(IpcDiscovery.runtimePath("discord-ipc-0").getParent(), i);
+        }
+    }
+
+    @AfterEach
+    void stopServers() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        for (var server : servers) {
+            server.close();
+        }
+    }
+
+    private void connect() throws InterruptedException {
+        var ready = new CountDownLatch(servers.length);
+        client = new MultiInstanceClient(new EventListener() {
+            @Override
+            public void onReady(@Nonnull DiscordRPCClient client, @Nonnull User user) {
+                ready.countDown();
+            }
+        }, "123");
+        client.connect();
+        assertTrue(ready.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (long deadline = System.nanoTime() + TIMEOUT.toNanos(); !condition.getAsBoolean() && System.nanoTime() < deadline; ) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void connectsToEveryEndpoint() throws Exception {
+        connect();
+
+        assertEquals(2, client.getConnectedCount());
+        assertEquals(2, client.refresh());
+        for (var server : servers) {
+            assertEquals(1, server.getAcceptedCount());
+        }
+    }
+
+    @Test
+    void broadcastsPresences() throws Exception {
+        connect();
+        client.sendPresence(new RichPresence.Builder().setText("Everywhere", "at once").build());
+
+        for (var server : servers) {
+            var command = server.nextCommand(TIMEOUT);
+            assertNotNull(command);
+            assertEquals("at once", command.getAsJsonObject("args").getAsJsonObject("activity").get("state").getAsString());
+        }
+    }
+
+    @Test
+    void reconnectsEndpointsWhichCameBack() throws Exception {
+        connect();
+        servers[1].disconnectAll();
+        // Waits for the client to finish closing, a closing client still counts as connected to refresh
+        await(() -> client.getClients().values().stream().anyMatch(instance -> instance.getState() == ConnectionState.DISCONNECTED));
+
+        assertEquals(2, client.refresh());
+        // The server accepts on its own thread
+        await(() -> servers[1].getAcceptedCount() == 2);
+        assertEquals(2, servers[1].getAcceptedCount());
+    }
+}
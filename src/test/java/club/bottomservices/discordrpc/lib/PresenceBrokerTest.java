@@ -0,0 +1,234 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.CommandException;
+import club.bottomservices.discordrpc.lib.pipe.IpcDiscovery;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static club.bottomservices.discordrpc.lib.DiscordRPCClientTest.TIMEOUT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Clients sharing a {@link FakeDiscordServer} through a {@link PresenceBroker}, which finds the server through discovery like it would find discord
+ */
+class PresenceBrokerTest {
+    private static int apps = 0;
+
+    private FakeDiscordServer server;
+    private String appId;
+    private final List<PresenceBroker> brokers = new ArrayList<>();
+    private final List<SocketChannel> raw = new ArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = FakeDiscordServer.start(IpcDiscovery.runtimePath("discord-ipc-0").getParent(), 0);
+        // Each test gets its own broker socket and lock file
+        appId = "broker-test-" + ProcessHandle.current().pid() + "-" + apps++;
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        for (var channel : raw) {
+            channel.close();
+        }
+        for (var broker : brokers) {
+            broker.close();
+        }
+        server.close();
+    }
+
+    private DiscordRPCClient join(int priority, EventListener listener) throws Exception {
+        var client = new DiscordRPCClient(listener, appId);
+        brokers.add(PresenceBroker.join(client, priority));
+        client.whenReady().get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        return client;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        return future.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static RichPresence presence(String state) {
+        return new RichPresence.Builder().setText("Brokered", state).build();
+    }
+
+    // A client speaking the protocol by hand, after the owner's client made sure the broker is up and ready
+    private SocketChannel rawClient() throws IOException {
+        var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        raw.add(channel);
+        channel.connect(UnixDomainSocketAddress.of(IpcDiscovery.runtimePath("discordrpc-broker-" + appId)));
+        var handshake = new JsonObject();
+        handshake.addProperty("v", 1);
+        handshake.addProperty("client_id", appId);
+        write(channel, DiscordPacket.OpCode.HANDSHAKE, handshake);
+        assertEquals("READY", read(channel).get("evt").getAsString());
+        return channel;
+    }
+
+    private static void write(SocketChannel channel, DiscordPacket.OpCode opCode, JsonObject message) throws IOException {
+        var payload = message.toString().getBytes(StandardCharsets.UTF_8);
+        var frame = ByteBuffer.allocate(2 * Integer.BYTES + payload.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(opCode.ordinal()).putInt(payload.length).put(payload).flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    private static JsonObject read(SocketChannel channel) throws IOException {
+        var header = readFully(channel, ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN));
+        var payload = readFully(channel, ByteBuffer.allocate(header.getInt(Integer.BYTES)));
+        return JsonParser.parseString(new String(payload.array(), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+
+    private static ByteBuffer readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void shownPresenceIsAnsweredByDiscord() throws Exception {
+        var low = join(1, null);
+        var high = join(5, null);
+
+        var shown = await(high.sendPresenceAsync(presence("high")));
+        assertEquals("high", shown.data().get("state").getAsString());
+        var sent = server.nextCommand(TIMEOUT);
+        assertEquals("high", sent.getAsJsonObject("args").getAsJsonObject("activity").get("state").getAsString());
+
+        // Held back by the higher priority, so discord never sees it
+        var held = await(low.sendPresenceAsync(presence("low")));
+        assertEquals("low", held.data().get("state").getAsString());
+        assertNull(server.nextCommand(Duration.ofMillis(200)));
+    }
+
+    @Test
+    void rejectedPresenceFails() throws Exception {
+        server.reject("SET_ACTIVITY", 4000, "Invalid activity");
+        var client = join(1, null);
+
+        var e = assertThrows(ExecutionException.class, () -> await(client.sendPresenceAsync(presence("rejected"))));
+        var rejected = assertInstanceOf(CommandException.class, e.getCause());
+        assertEquals(4000, rejected.getError().code);
+        assertEquals("Invalid activity", rejected.getError().message);
+    }
+
+    @Test
+    void malformedCommandsGetAnError() throws Exception {
+        join(1, null);
+        var channel = rawClient();
+
+        var missing = new JsonObject();
+        missing.addProperty("nonce", "1");
+        write(channel, DiscordPacket.OpCode.MESSAGE, missing);
+        var notString = new JsonObject();
+        notString.add("cmd", new JsonObject());
+        notString.addProperty("nonce", "2");
+        write(channel, DiscordPacket.OpCode.MESSAGE, notString);
+        var badArgs = new JsonObject();
+        badArgs.addProperty("cmd", "SET_ACTIVITY");
+        badArgs.addProperty("args", "activity");
+        badArgs.addProperty("nonce", "3");
+        write(channel, DiscordPacket.OpCode.MESSAGE, badArgs);
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (var nonce : new String[]{"1", "2", "3"}) {
+                var reply = read(channel);
+                assertEquals("ERROR", reply.get("evt").getAsString());
+                assertEquals(nonce, reply.get("nonce").getAsString());
+                assertEquals(4000, reply.getAsJsonObject("data").get("code").getAsInt());
+            }
+        });
+    }
+
+    @Test
+    void slowClientIsDroppedWithoutHoldingUpOthers() throws Exception {
+        int events = 100;
+        var joined = new CountDownLatch(events);
+        join(1, new EventListener() {
+            @Override
+            public void onActivityJoin(@Nonnull DiscordRPCClient client, @Nonnull String secret) {
+                joined.countDown();
+            }
+        });
+        // Handshakes and then never reads again
+        var stalled = rawClient();
+
+        var data = new JsonObject();
+        data.addProperty("secret", "s".repeat(64 * 1024));
+        // Discord's writes back up as well if the broker waits on the stalled client
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < events; i++) {
+                server.dispatch("ACTIVITY_JOIN", data);
+            }
+        });
+
+        assertTrue(joined.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        // Whatever made it into the socket is followed by the end of the stream
+        assertTimeoutPreemptively(TIMEOUT, () -> assertThrows(EOFException.class, () -> {
+            while (true) {
+                read(stalled);
+            }
+        }));
+    }
+
+    @Test
+    void discordNotReadingHoldsUpNoSession() throws Exception {
+        join(1, null);
+        var writer = rawClient();
+        var pinger = rawClient();
+        server.setReading(false);
+        try {
+            // Each presence differs from the last one, so every one of them is sent on to discord
+            assertTimeoutPreemptively(TIMEOUT, () -> {
+                for (int i = 0; i < 64; i++) {
+                    var activity = new JsonObject();
+                    activity.addProperty("state", i + "s".repeat(64 * 1024));
+                    var args = new JsonObject();
+                    args.add("activity", activity);
+                    var message = new JsonObject();
+                    message.addProperty("cmd", "SET_ACTIVITY");
+                    message.add("args", args);
+                    message.addProperty("nonce", String.valueOf(i));
+                    write(writer, DiscordPacket.OpCode.MESSAGE, message);
+                }
+            });
+
+            var ping = new JsonObject();
+            ping.addProperty("nonce", "ping");
+            write(pinger, DiscordPacket.OpCode.PING, ping);
+            assertTimeoutPreemptively(TIMEOUT, () -> assertEquals("ping", read(pinger).get("nonce").getAsString()));
+        } finally {
+            // Lets a broker stuck writing to discord close
+            server.setReading(true);
+        }
+    }
+}
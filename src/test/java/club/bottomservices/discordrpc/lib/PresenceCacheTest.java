@@ -0,0 +1,70 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresenceCacheTest {
+    private final PresenceCache cache = new PresenceCache();
+    private final FrameBuffer frame = new FrameBuffer(64);
+
+    private String encode(RichPresence presence) {
+        return cache.encode(presence, frame.clear()) ? new String(frame.copy(0), StandardCharsets.UTF_8) : null;
+    }
+
+    private static String gson(RichPresence presence) {
+        return DiscordRPCClient.GSON.toJsonTree(presence).toString();
+    }
+
+    @Test
+    void repeatedPresenceIsSuppressed() {
+        var presence = new RichPresence.Builder().setText("Cache", "same").setPartyInfo("party", 1, 4).build();
+        assertEquals(gson(presence), encode(presence));
+        assertNull(encode(presence));
+        // Equal content in new instances counts as a repeat as well
+        assertNull(encode(new RichPresence.Builder().setText("Cache", "same").setPartyInfo("party", 1, 4).build()));
+    }
+
+    @Test
+    void partySizeChangedInPlaceIsSentAgain() {
+        var size = new int[]{1, 4};
+        var presence = new RichPresence(null, "Cache", null, null, new RichPresence.Party("party", size), null, null);
+        assertTrue(encode(presence).contains("[1,4]"));
+
+        size[0] = 2;
+        var changed = encode(presence);
+        assertEquals(gson(presence), changed);
+        assertTrue(changed.contains("[2,4]"));
+        assertFalse(cache.encode(presence, frame.clear()));
+
+        // The encoding of the party part must not be reused for the old size either
+        size[0] = 3;
+        var other = new RichPresence(null, "Other", null, null, presence.party(), null, null);
+        assertEquals(gson(other), encode(other));
+    }
+
+    @Test
+    void buttonsChangedInPlaceAreSentAgain() {
+        var buttons = new ArrayList<>(List.of(new RichPresence.Button("One", "https://example.com/1")));
+        var presence = new RichPresence(null, "Cache", null, null, null, null, buttons);
+        assertEquals(gson(presence), encode(presence));
+
+        buttons.set(0, new RichPresence.Button("Two", "https://example.com/2"));
+        var changed = encode(presence);
+        assertEquals(gson(presence), changed);
+        assertFalse(cache.encode(presence, frame.clear()));
+
+        // The encoding of the buttons part must not be reused for the old list either
+        buttons.add(new RichPresence.Button("Three", "https://example.com/3"));
+        var other = new RichPresence(null, "Other", null, null, null, null, buttons);
+        assertEquals(gson(other), encode(other));
+    }
+}
@@ -0,0 +1,140 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.pipe.FrameBuffer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Golden tests of {@link PresenceEncoder}, {@link PresenceCache} and {@link PresenceTemplate} against the json tree {@link DiscordRPCClient#GSON} builds,
+ * which is how presences were written before they were encoded by hand
+ */
+class PresenceEncoderTest {
+    private static final String CONTROL = "\u0000\u0001\u0007\b\t\n\u000b\f\r\u001b\u001f\u007f";
+    private static final String HTML = "<script>a & b = 'c'</script>";
+    private static final String SEPARATORS = "line\u2028paragraph\u2029end";
+    private static final String LONE_SURROGATES = "high \uD83D alone, low \uDE00 alone, reversed \uDE00\uD83D, trailing \uD83D";
+    private static final String NON_BMP = "emoji \uD83D\uDE00 and \uD800\uDC00, \u00e9\u00df \u4e2d\u6587 \uFFFF";
+    private static final String QUOTES = "\"quoted\" back\\slash /slash";
+
+    private static final String[] SPECIAL = {CONTROL, HTML, SEPARATORS, LONE_SURROGATES, NON_BMP, QUOTES, "", "plain"};
+
+    private static String gson(RichPresence presence) {
+        return DiscordRPCClient.GSON.toJsonTree(presence).toString();
+    }
+
+    private static void assertSameAsGson(RichPresence presence) {
+        var expected = gson(presence).getBytes(StandardCharsets.UTF_8);
+
+        var frame = new FrameBuffer(16);
+        PresenceEncoder.encode(presence, frame);
+        assertArrayEquals(expected, frame.copy(0));
+
+        var cache = new PresenceCache();
+        cache.encode(presence, frame.clear());
+        assertArrayEquals(expected, frame.copy(0));
+
+        var template = new PresenceTemplate(presence);
+        template.encode(frame.clear());
+        assertArrayEquals(expected, frame.copy(0));
+    }
+
+    private static void assertArrayEquals(byte[] expected, byte[] actual) {
+        Assertions.assertArrayEquals(expected, actual,
+                () -> new String(expected, StandardCharsets.UTF_8) + " != " + new String(actual, StandardCharsets.UTF_8));
+    }
+
+    private static RichPresence everything(String text) {
+        return new RichPresence(text, text, new RichPresence.Timestamps(1L, Long.MAX_VALUE),
+                new RichPresence.Assets(text, text, text, text),
+                new RichPresence.Party(text, new int[]{1, 4}),
+                new RichPresence.Secrets(text, text, text),
+                List.of(new RichPresence.Button(text, text), new RichPresence.Button("second", text)));
+    }
+
+    @Test
+    void escapesLikeGson() {
+        for (var text : SPECIAL) {
+            assertSameAsGson(everything(text));
+        }
+    }
+
+    @Test
+    void everyCharacterLikeGson() {
+        var text = new StringBuilder();
+        for (char c = 0; c < Character.MAX_VALUE; c++) {
+            text.append(c);
+            if (text.length() == 4096) {
+                assertSameAsGson(new RichPresence(text.toString(), null, null, null, null, null, null));
+                text.setLength(0);
+            }
+        }
+        assertSameAsGson(new RichPresence(text.append(Character.MAX_VALUE).toString(), null, null, null, null, null, null));
+    }
+
+    @Test
+    void leavesOutNullPartsLikeGson() {
+        assertSameAsGson(new RichPresence(null, null, null, null, null, null, null));
+        assertSameAsGson(new RichPresence(null, "details", null, null, null, null, null));
+        assertSameAsGson(new RichPresence(null, null, new RichPresence.Timestamps(null, null), null, null, null, null));
+        assertSameAsGson(new RichPresence(null, null, new RichPresence.Timestamps(null, -5L), null, null, null, null));
+        assertSameAsGson(new RichPresence(null, null, new RichPresence.Timestamps(Long.MIN_VALUE, 0L), null, null, null, null));
+        assertSameAsGson(new RichPresence(null, null, null, new RichPresence.Assets(null, null, null, null), null, null, null));
+        assertSameAsGson(new RichPresence(null, null, null, new RichPresence.Assets(null, "large", null, "small"), null, null, null));
+        assertSameAsGson(new RichPresence(null, null, null, null, new RichPresence.Party("id", null), null, null));
+        assertSameAsGson(new RichPresence(null, null, null, null, new RichPresence.Party("id", new int[0]), null, null));
+        assertSameAsGson(new RichPresence(null, null, null, null, null, new RichPresence.Secrets(null, "spectate", null), null));
+        assertSameAsGson(new RichPresence("state", null, null, null, null, null, List.of()));
+    }
+
+    @Test
+    void buttonsLikeGson() {
+        assertSameAsGson(new RichPresence(null, null, null, null, null, null, List.of(new RichPresence.Button("Website", "https://example.com"))));
+        assertSameAsGson(new RichPresence.Builder()
+                .setText("details", "state")
+                .addButton("One", "https://example.com/1?a=b&c=<d>")
+                .addButton(HTML, SEPARATORS)
+                .build());
+    }
+
+    @Test
+    void randomPresencesLikeGson() {
+        var random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            assertSameAsGson(new RichPresence(
+                    text(random), text(random),
+                    random.nextBoolean() ? null : new RichPresence.Timestamps(random.nextBoolean() ? null : random.nextLong(), random.nextBoolean() ? null : random.nextLong()),
+                    random.nextBoolean() ? null : new RichPresence.Assets(text(random), text(random), text(random), text(random)),
+                    random.nextBoolean() ? null : new RichPresence.Party(String.valueOf(text(random)), new int[]{random.nextInt(), random.nextInt()}),
+                    random.nextBoolean() ? null : new RichPresence.Secrets(text(random), text(random), text(random)),
+                    random.nextBoolean() ? null : buttons(random)));
+        }
+    }
+
+    private static List<RichPresence.Button> buttons(Random random) {
+        var buttons = new ArrayList<RichPresence.Button>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            buttons.add(new RichPresence.Button(String.valueOf(text(random)), String.valueOf(text(random))));
+        }
+        return buttons;
+    }
+
+    // Null, one of the special strings, or random chars from all over the range
+    private static String text(Random random) {
+        return switch (random.nextInt(4)) {
+            case 0 -> null;
+            case 1 -> SPECIAL[random.nextInt(SPECIAL.length)];
+            default -> {
+                var text = new StringBuilder();
+                for (int i = random.nextInt(24); i > 0; i--) {
+                    text.append(random.nextBoolean() ? (char) random.nextInt(0x80) : (char) random.nextInt(Character.MAX_VALUE + 1));
+                }
+                yield text.toString();
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package club.bottomservices.discordrpc.lib;
+
+import club.bottomservices.discordrpc.lib.exceptions.NotConnectedException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PresenceSchedulerTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final List<RichPresence> written = new ArrayList<>();
+    private final List<CompletableFuture<CommandResponse>> replies = new ArrayList<>();
+    private final List<Duration> timeouts = new ArrayList<>();
+
+    // Allows a single write per hour, so everything after the first submission is coalesced
+    private PresenceScheduler scheduler() {
+        return new PresenceScheduler((presence, timeout) -> {
+            written.add(presence);
+            timeouts.add(timeout);
+            if (timeout == null) {
+                replies.add(null);
+                return null;
+            }
+            var reply = new CompletableFuture<CommandResponse>();
+            replies.add(reply);
+            return reply;
+        }, 1, Duration.ofHours(1));
+    }
+
+    private static RichPresence presence(int i) {
+        return new RichPresence.Builder().setText("Coalescing", "Update " + i).build();
+    }
+
+    @Test
+    void thousandsOfCoalescedPresencesCompleteWithTheWrittenReply() throws Exception {
+        var scheduler = scheduler();
+        scheduler.submit(presence(-1), TIMEOUT);
+        var futures = new ArrayList<CompletableFuture<CommandResponse>>();
+        for (int i = 0; i < 50_000; i++) {
+            futures.add(scheduler.submit(presence(i), TIMEOUT));
+        }
+        scheduler.flushNow();
+
+        assertEquals(2, written.size());
+        assertEquals(presence(49_999), written.get(1));
+        assertEquals(49_999, scheduler.getCoalescedCount());
+        var response = new CommandResponse(null, Duration.ZERO);
+        replies.get(1).complete(response);
+        for (var future : futures) {
+            assertSame(response, future.get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void coalescedPresencesFailAlongWithTheWrittenOne() {
+        var scheduler = scheduler();
+        scheduler.submit(presence(-1), TIMEOUT);
+        var futures = new ArrayList<CompletableFuture<CommandResponse>>();
+        for (int i = 0; i < 10_000; i++) {
+            futures.add(scheduler.submit(presence(i), TIMEOUT));
+        }
+        scheduler.cancel();
+
+        for (var future : futures) {
+            var e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(NotConnectedException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void heldBackPresenceTimesOut() {
+        var scheduler = scheduler();
+        scheduler.submit(presence(0), TIMEOUT);
+        var coalesced = scheduler.submit(presence(1), Duration.ofMillis(300));
+        var held = scheduler.submit(presence(2), Duration.ofMillis(100));
+
+        var e = assertThrows(ExecutionException.class, () -> held.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        e = assertThrows(ExecutionException.class, () -> coalesced.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        scheduler.cancel();
+    }
+
+    @Test
+    void unwatchedPresencesAreNotTracked() {
+        var scheduler = scheduler();
+        scheduler.submit(presence(-1));
+        for (int i = 0; i < 1_000; i++) {
+            scheduler.submit(presence(i));
+        }
+        scheduler.flushNow();
+
+        assertEquals(List.of(presence(-1), presence(999)), written);
+        assertEquals(Arrays.asList(null, null), timeouts);
+        assertEquals(999, scheduler.getCoalescedCount());
+    }
+
+    @Test
+    void watchedPresenceReplacedByAnUnwatchedOneGetsItsReply() throws Exception {
+        var scheduler = scheduler();
+        scheduler.submit(presence(-1));
+        var watched = scheduler.submit(presence(0), TIMEOUT);
+        scheduler.submit(presence(1));
+        scheduler.flushNow();
+
+        assertEquals(presence(1), written.get(1));
+        assertEquals(TIMEOUT, timeouts.get(1));
+        var response = new CommandResponse(null, Duration.ZERO);
+        replies.get(1).complete(response);
+        assertSame(response, watched.get(1, TimeUnit.SECONDS));
+    }
+}
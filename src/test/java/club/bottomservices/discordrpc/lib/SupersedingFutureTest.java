@@ -0,0 +1,49 @@
+package club.bottomservices.discordrpc.lib;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SupersedingFutureTest {
+    private static SupersedingFuture future() {
+        var future = new SupersedingFuture();
+        future.whenComplete(future::settleFollowers);
+        return future;
+    }
+
+    @Test
+    void followersCompleteAlongWithTheReplacement() throws Exception {
+        var oldest = future();
+        var older = future();
+        var newest = future();
+        older.adopt(oldest);
+        newest.adopt(older);
+
+        var response = new CommandResponse(null, Duration.ZERO);
+        newest.complete(response);
+        assertSame(response, oldest.get(1, TimeUnit.SECONDS));
+        assertSame(response, older.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void adoptingIntoSettledFutureForwardsItsOutcome() {
+        var oldest = future();
+        var older = future();
+        older.adopt(oldest);
+        var settled = future();
+        settled.completeExceptionally(new TimeoutException());
+        settled.adopt(older);
+
+        for (var future : new SupersedingFuture[]{older, oldest}) {
+            var e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+        }
+    }
+}
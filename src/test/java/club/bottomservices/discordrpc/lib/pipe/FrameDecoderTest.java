@@ -0,0 +1,116 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import club.bottomservices.discordrpc.lib.DiscordPacket;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameDecoderTest {
+    private static byte[] frame(int opCode, int size, String payload) {
+        var bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 * Integer.BYTES + bytes.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(opCode).putInt(size).put(bytes).array();
+    }
+
+    private static byte[] frame(String payload) {
+        return frame(DiscordPacket.OpCode.MESSAGE.ordinal(), payload.getBytes(StandardCharsets.UTF_8).length, payload);
+    }
+
+    private static String message(int length) {
+        return "{\"evt\":\"" + "x".repeat(length) + "\"}";
+    }
+
+    // Feeds the bytes in chunks as small as the receive buffer allows, decoding whenever it fills up
+    private static int receive(FrameDecoder decoder, byte[] bytes) throws IOException {
+        int decoded = 0;
+        for (int i = 0; i < bytes.length; ) {
+            var buffer = decoder.receiveBuffer();
+            int chunk = Math.min(buffer.remaining(), bytes.length - i);
+            buffer.put(bytes, i, chunk);
+            i += chunk;
+            while (decoder.decode() != null) {
+                decoded++;
+            }
+        }
+        return decoded;
+    }
+
+    @Test
+    void bufferShrinksAfterBigPacket() throws IOException {
+        var decoder = new FrameDecoder();
+        int initial = decoder.receiveBuffer().capacity();
+
+        assertEquals(1, receive(decoder, frame(message(64 * 1024))));
+        assertEquals(initial, decoder.receiveBuffer().capacity());
+        assertEquals(0, decoder.receiveBuffer().position());
+
+        // Bytes of the next packet are kept when shrinking
+        var big = frame(message(64 * 1024));
+        var small = frame(message(16));
+        var both = ByteBuffer.allocate(big.length + 5).put(big).put(small, 0, 5).array();
+        assertEquals(1, receive(decoder, both));
+        assertEquals(initial, decoder.receiveBuffer().capacity());
+        assertEquals(1, receive(decoder, Arrays.copyOfRange(small, 5, small.length)));
+    }
+
+    @Test
+    void maxFrameSizeLeavesRoomForTheHeader() {
+        assertThrows(IllegalArgumentException.class, () -> new FrameDecoder(Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> new FrameDecoder(FrameDecoder.LARGEST_MAX_FRAME_SIZE + 1));
+        new FrameDecoder(FrameDecoder.LARGEST_MAX_FRAME_SIZE);
+    }
+
+    @Test
+    void oversizedPacketFails() {
+        var decoder = new FrameDecoder(16);
+        decoder.receiveBuffer().put(frame(message(64)));
+        assertThrows(IOException.class, decoder::decode);
+    }
+
+    @Test
+    void windowsPipeFailsOnOversizedPacket(@TempDir Path directory) throws IOException {
+        var file = Files.write(directory.resolve("pipe"), frame(message(64)));
+        try (var pipe = new WindowsPipe(file, 16)) {
+            assertThrows(IOException.class, pipe::read);
+        }
+        try (var pipe = new WindowsPipe(file, 16)) {
+            assertThrows(IOException.class, () -> pipe.read(packet -> {
+            }));
+        }
+
+        var unknown = Files.write(directory.resolve("unknown"), frame(DiscordPacket.OpCode.values().length, 2, "{}"));
+        try (var pipe = new WindowsPipe(unknown, 16)) {
+            assertThrows(IOException.class, pipe::read);
+        }
+    }
+
+    @Test
+    void windowsPipeReportsDisconnection(@TempDir Path directory) throws IOException {
+        var file = Files.write(directory.resolve("pipe"), frame(message(4)));
+        try (var pipe = new WindowsPipe(file, 64)) {
+            assertNotNull(pipe.read());
+        }
+        // Ends in the middle of the payload like a closed pipe
+        var truncated = Files.write(directory.resolve("truncated"), Arrays.copyOf(frame(message(4)), 12));
+        try (var pipe = new WindowsPipe(truncated, 64)) {
+            assertNull(pipe.read());
+        }
+        try (var pipe = new WindowsPipe(truncated, 64)) {
+            assertFalse(pipe.read(packet -> {
+            }));
+        }
+    }
+}
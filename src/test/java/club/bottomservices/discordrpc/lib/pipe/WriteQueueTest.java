@@ -0,0 +1,95 @@
+package club.bottomservices.discordrpc.lib.pipe;
+
+import club.bottomservices.discordrpc.lib.DiscordPacket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pipes driven by a {@link PipeEventLoop} writing to a discord that never reads, so their writes pile up in the queue
+ */
+class WriteQueueTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private ServerSocketChannel server;
+    private SocketChannel discord;
+    private PipeEventLoop loop;
+    private UnixPipe pipe;
+
+    @BeforeEach
+    void connect(@TempDir Path directory) throws Exception {
+        var address = UnixDomainSocketAddress.of(directory.resolve("discord-ipc-0"));
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(address);
+        loop = new PipeEventLoop();
+        pipe = new UnixPipe(SocketChannel.open(address), FrameDecoder.DEFAULT_MAX_FRAME_SIZE);
+        discord = server.accept();
+
+        var registered = new CountDownLatch(1);
+        loop.register(pipe, new PipeEventLoop.Handler() {
+            @Override
+            public void onPacket(@Nonnull PacketView packet) {
+                registered.countDown();
+            }
+
+            @Override
+            public void onFailure(@Nonnull IOException exception) {
+            }
+        });
+        // Only a registered pipe reads, after which its writes queue instead of waiting
+        var payload = "{}".getBytes(StandardCharsets.UTF_8);
+        discord.write(ByteBuffer.allocate(2 * Integer.BYTES + payload.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(DiscordPacket.OpCode.MESSAGE.ordinal()).putInt(payload.length).put(payload).flip());
+        assertTimeoutPreemptively(TIMEOUT, () -> registered.await());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        pipe.close();
+        discord.close();
+        loop.close();
+        server.close();
+    }
+
+    @Test
+    void closingDiscardsQueuedBytes() throws IOException {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            while (pipe.getQueuedBytes() == 0) {
+                pipe.write(new byte[64 * 1024]);
+            }
+        });
+        pipe.close();
+        assertEquals(0, pipe.getQueuedBytes());
+    }
+
+    @Test
+    void commandsFailOverTheHighWaterMarkWhenDroppingSuperseded() {
+        int highWaterMark = 256 * 1024;
+        pipe.setHighWaterMark(highWaterMark, UnixPipe.OverflowPolicy.DROP_SUPERSEDED);
+        // Far more than the socket and the mark together hold
+        assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 1024; i++) {
+                pipe.write(new byte[16 * 1024]);
+            }
+        });
+        assertTrue(pipe.getQueuedBytes() <= highWaterMark, () -> pipe.getQueuedBytes() + " bytes queued");
+    }
+}